@@ -0,0 +1,249 @@
+package blue.lhf.jfxr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Bookkeeping for the jars in an output directory, kept in {@code jfxr.manifest} as
+ * {@code <jar>.<attribute>} properties. Every change happens under a file lock,
+ * so several JVMs can share the output directory.
+ */
+class CacheManifest {
+    private static final String FILE = "jfxr.manifest";
+    private static final String VERSION = ".version";
+    private static final String ACCESSED = ".accessed";
+    private static final String SHA1 = ".sha1";
+    private static final String REPACKED = ".repacked";
+    private static final String REPACKED_STAMP = ".repackedStamp";
+    private static final String RESOLVED = ".resolved";
+    // A younger partial download may still be being written to
+    private static final Duration STALE_PART = Duration.ofDays(1);
+
+    protected final Path outDir;
+
+    CacheManifest(Path outDir) {
+        this.outDir = outDir;
+    }
+
+    @FunctionalInterface
+    interface Update {
+        void apply(Properties properties) throws IOException;
+    }
+
+    /**
+     * Records that the jars of {@code version} were used just now.
+     */
+    void touch(Collection<Path> files, String version) throws IOException {
+        String now = String.valueOf(System.currentTimeMillis());
+        update(properties -> {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                properties.setProperty(name + VERSION, version);
+                properties.setProperty(name + ACCESSED, now);
+            }
+        });
+    }
+
+    /**
+     * Records the digest of a jar that was verified against its repository, or forgets it if
+     * {@code sha1} is null because the jar was replaced by one that couldn't be verified.
+     */
+    void digest(String name, String sha1) throws IOException {
+        update(properties -> {
+            // A freshly fetched jar is no longer the repacked one
+            properties.remove(name + REPACKED);
+            properties.remove(name + REPACKED_STAMP);
+            if (sha1 == null) properties.remove(name + SHA1);
+            else properties.setProperty(name + SHA1, sha1);
+        });
+    }
+
+    /**
+     * Records the digest of a jar after {@link blue.lhf.jfxr.util.JarRepacker} rewrote it,
+     * along with its size and modification time. The original digest is kept, so either
+     * one identifies a good copy of the jar.
+     */
+    void repacked(String name, String sha1, Path file) throws IOException {
+        String stamp = stamp(file);
+        update(properties -> {
+            properties.setProperty(name + REPACKED, sha1);
+            properties.setProperty(name + REPACKED_STAMP, stamp);
+        });
+    }
+
+    /**
+     * @return whether {@code file} still has the size and modification time it had when it was repacked,
+     * which is cheap enough to check on every launch where its digest isn't
+     */
+    boolean isUnchanged(String name, Path file) throws IOException {
+        return stamp(file).equals(read().getProperty(name + REPACKED_STAMP));
+    }
+
+    boolean isRepacked(String name) throws IOException {
+        return read().containsKey(name + REPACKED);
+    }
+
+    /**
+     * @return whether {@code sha1} is the verified digest of a jar, as downloaded or as repacked
+     */
+    boolean verified(String name, String sha1) throws IOException {
+        Properties properties = read();
+        return sha1.equals(properties.getProperty(name + SHA1)) || sha1.equals(properties.getProperty(name + REPACKED));
+    }
+
+    /**
+     * @return the verified digest of a jar as downloaded, or null if it was never verified
+     */
+    String digest(String name) throws IOException {
+        return read().getProperty(name + SHA1);
+    }
+
+    /**
+     * @return the verified digest of a jar if the jar is still as downloaded, otherwise null
+     */
+    String original(String name) throws IOException {
+        Properties properties = read();
+        return properties.containsKey(name + REPACKED) ? null : properties.getProperty(name + SHA1);
+    }
+
+    /**
+     * Records that the repository has no jar named {@code name}, so {@code classifier}, a less
+     * specific one, is used in its place. Artifacts of a released version don't change, so this
+     * stands for good.
+     */
+    void resolved(String name, String classifier) throws IOException {
+        update(properties -> properties.setProperty(name + RESOLVED, classifier));
+    }
+
+    /**
+     * @return the classifier recorded in place of the jar named {@code name}, or null if there is none
+     */
+    String resolved(String name) throws IOException {
+        return read().getProperty(name + RESOLVED);
+    }
+
+    /**
+     * Deletes the least recently used versions until the jars fit in {@code maxBytes}, and
+     * any version unused for longer than {@code maxAge}. Jars in {@code keep} are never deleted,
+     * and neither is any file the manifest doesn't list, since the output directory may be shared.
+     */
+    void evict(long maxBytes, Duration maxAge, Set<Path> keep) throws IOException {
+        update(properties -> {
+            Map<String, VersionSet> sets = new HashMap<>();
+            long total = 0;
+            try (Stream<Path> files = Files.list(outDir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    String name = file.getFileName().toString();
+                    String jar = name;
+                    if (name.endsWith(".part")) {
+                        if (Files.getLastModifiedTime(file).toMillis() > System.currentTimeMillis() - STALE_PART.toMillis())
+                            continue;
+                        jar = name.substring(0, name.length() - ".part".length());
+                    } else if (!name.endsWith(".jar")) continue;
+
+                    // Only jars JFXR recorded are its own to delete
+                    String version = properties.getProperty(jar + VERSION);
+                    if (version == null) continue;
+
+                    long size = Files.size(file);
+                    long accessed = Long.parseLong(properties.getProperty(jar + ACCESSED,
+                            String.valueOf(Files.getLastModifiedTime(file).toMillis())));
+                    VersionSet set = sets.computeIfAbsent(version, key -> new VersionSet());
+                    set.files.put(file, size);
+                    set.accessed = Math.max(set.accessed, accessed);
+                    set.kept |= keep.contains(file.toAbsolutePath().normalize());
+                    total += size;
+                }
+            }
+
+            long cutoff = maxAge == null ? Long.MIN_VALUE : System.currentTimeMillis() - maxAge.toMillis();
+            List<VersionSet> candidates = new ArrayList<>(sets.values());
+            candidates.sort(Comparator.comparingLong(set -> set.accessed));
+            for (VersionSet set : candidates) {
+                if (set.kept) continue;
+                if (total <= maxBytes && set.accessed >= cutoff) continue;
+
+                for (Map.Entry<Path, Long> file : set.files.entrySet()) {
+                    try {
+                        Files.deleteIfExists(file.getKey());
+                    } catch (IOException ignored) {
+                        // still in use by another process, we'll get it next time
+                        continue;
+                    }
+                    total -= file.getValue();
+                    forget(properties, file.getKey().getFileName().toString());
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies {@code update} to the manifest while holding its lock, then writes it back.
+     */
+    void update(Update update) throws IOException {
+        Path manifest = outDir.resolve(FILE);
+        synchronized (CacheManifest.class) {
+            try (FileChannel channel = FileChannel.open(outDir.resolve(FILE + ".lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                FileLock lock = channel.lock();
+                try {
+                    Properties properties = read();
+                    update.apply(properties);
+
+                    Path temp = Files.createTempFile(outDir, FILE, ".tmp");
+                    try (OutputStream stream = Files.newOutputStream(temp)) {
+                        properties.store(stream, "JFXR cache manifest");
+                    }
+                    Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    // The manifest is only ever replaced atomically, so reading it needs no lock
+    private Properties read() throws IOException {
+        Path manifest = outDir.resolve(FILE);
+        Properties properties = new Properties();
+        if (Files.isReadable(manifest)) {
+            try (InputStream stream = Files.newInputStream(manifest)) {
+                properties.load(stream);
+            }
+        }
+        return properties;
+    }
+
+    private static String stamp(Path file) throws IOException {
+        return Files.size(file) + ":" + Files.getLastModifiedTime(file).toMillis();
+    }
+
+    private static void forget(Properties properties, String name) {
+        properties.stringPropertyNames().stream()
+                .filter(key -> key.startsWith(name + "."))
+                .forEach(properties::remove);
+    }
+
+    private static class VersionSet {
+        private final Map<Path, Long> files = new HashMap<>();
+        private long accessed = Long.MIN_VALUE;
+        private boolean kept;
+    }
+}
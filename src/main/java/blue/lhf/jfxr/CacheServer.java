@@ -0,0 +1,131 @@
+package blue.lhf.jfxr;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves the verified jars of an output directory to other JFXR instances, see
+ * {@link blue.lhf.jfxr.source.PeerSource}. Any request path resolves to the output
+ * directory by its last segment, so peers can use the repository layout as is.
+ * Only jars with a digest recorded in the {@link CacheManifest} are served, along
+ * with that digest as {@code <jar>.sha1}. Repacked jars aren't, since peers verify
+ * against the repository's digest of the original.
+ */
+class CacheServer {
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+    // One server per address, however many JFXRs ask for it
+    private static final Map<InetSocketAddress, CacheServer> RUNNING = new HashMap<>();
+
+    private final CacheManifest manifest;
+    private final Path outDir;
+    private final HttpServer server;
+
+    private CacheServer(Path outDir, InetSocketAddress address) throws IOException {
+        this.outDir = outDir;
+        this.manifest = new CacheManifest(outDir);
+        this.server = HttpServer.create(address, 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "JFXR Cache Server");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+    }
+
+    static synchronized void start(Path outDir, InetSocketAddress address) throws IOException {
+        if (RUNNING.containsKey(address)) return;
+        RUNNING.put(address, new CacheServer(outDir, address));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            boolean head = exchange.getRequestMethod().equals("HEAD");
+            if (!head && !exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            String path = exchange.getRequestURI().getPath();
+            String name = path.substring(path.lastIndexOf('/') + 1);
+            boolean digestOnly = name.endsWith(".sha1");
+            if (digestOnly) name = name.substring(0, name.length() - ".sha1".length());
+
+            String sha1 = name.endsWith(".jar") && !name.startsWith(".") ? manifest.original(name) : null;
+            Path file = outDir.resolve(name);
+            if (sha1 == null || !Files.isRegularFile(file)) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            if (digestOnly) {
+                byte[] body = sha1.getBytes(StandardCharsets.US_ASCII);
+                exchange.sendResponseHeaders(200, head ? -1 : body.length);
+                if (!head) exchange.getResponseBody().write(body);
+                return;
+            }
+
+            // The channel keeps reading the jar we checked even if it's replaced meanwhile
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                send(exchange, channel, sha1, head);
+            }
+        }
+    }
+
+    private static void send(HttpExchange exchange, FileChannel channel, String sha1, boolean head) throws IOException {
+        long size = channel.size();
+        long start = 0;
+        long end = size - 1;
+        int code = 200;
+
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        Matcher matcher = range == null ? null : RANGE.matcher(range.trim());
+        if (matcher != null && matcher.matches() && !(matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+            if (matcher.group(1).isEmpty()) {
+                start = Math.max(0, size - Long.parseLong(matcher.group(2)));
+            } else {
+                start = Long.parseLong(matcher.group(1));
+                if (!matcher.group(2).isEmpty()) end = Math.min(end, Long.parseLong(matcher.group(2)));
+            }
+
+            if (start >= size || start > end) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            code = 206;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+        }
+
+        long length = end - start + 1;
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        exchange.getResponseHeaders().set("X-Checksum-Sha1", sha1);
+        exchange.sendResponseHeaders(code, head || length == 0 ? -1 : length);
+        if (head) return;
+
+        OutputStream body = exchange.getResponseBody();
+        WritableByteChannel output = Channels.newChannel(body);
+        long position = start;
+        while (position <= end) {
+            long written = channel.transferTo(position, end - position + 1, output);
+            if (written <= 0) throw new IOException("Jar shrank while it was being served");
+            position += written;
+        }
+    }
+}
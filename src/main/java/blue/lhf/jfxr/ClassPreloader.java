@@ -0,0 +1,139 @@
+package blue.lhf.jfxr;
+
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.ProtectionDomain;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Records which JavaFX classes an application loads while it starts up, and on later runs
+ * loads those classes on background threads while the application starts, so that the
+ * launcher and FX threads find them already defined. The profile is recorded again once
+ * the application is updated, or once it's a week old.
+ */
+class ClassPreloader {
+    private static final String[] PREFIXES = {
+            "javafx/", "com/sun/javafx/", "com/sun/glass/", "com/sun/prism/",
+            "com/sun/scenario/", "com/sun/webkit/", "com/sun/media/jfxmedia/"
+    };
+
+    // Only the first JFXR in a JVM records or preloads, later ones would find everything loaded
+    private static final AtomicBoolean STARTED = new AtomicBoolean();
+    private static final Duration MAX_AGE = Duration.ofDays(7);
+
+    private final Path profile;
+    private final Duration window;
+    private final Path application;
+
+    /**
+     * @param application the jar or directory the application is loaded from, or null if unknown
+     */
+    ClassPreloader(Path profile, Duration window, Path application) {
+        this.profile = profile;
+        this.window = window;
+        this.application = application;
+    }
+
+    void start(Instrumentation instrumentation) {
+        if (!STARTED.compareAndSet(false, true)) return;
+
+        if (Files.isReadable(profile) && !isStale()) {
+            preload();
+        } else if (instrumentation != null) {
+            record(instrumentation);
+        }
+    }
+
+    private boolean isStale() {
+        try {
+            FileTime recorded = Files.getLastModifiedTime(profile);
+            if (recorded.toInstant().isBefore(Instant.now().minus(MAX_AGE))) return true;
+            return application != null && Files.isRegularFile(application)
+                    && Files.getLastModifiedTime(application).compareTo(recorded) > 0;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private void preload() {
+        List<String> names;
+        try {
+            names = Files.readAllLines(profile, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return;
+        }
+
+        ClassLoader loader = ClassLoader.getSystemClassLoader();
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        for (int i = 0; i < threads; i++) {
+            int first = i;
+            // Each thread takes every n-th class, so all of them work through the profile in startup order
+            Thread thread = new Thread(() -> {
+                for (int j = first; j < names.size(); j += threads) {
+                    try {
+                        Class.forName(names.get(j), false, loader);
+                    } catch (ClassNotFoundException | LinkageError ignored) {
+                        // the profile may be from another version, just skip the class
+                    }
+                }
+            }, "JFXR Class Preloader " + i);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+        }
+    }
+
+    private void record(Instrumentation instrumentation) {
+        Recorder recorder = new Recorder();
+        instrumentation.addTransformer(recorder);
+        CompletableFuture.delayedExecutor(window.toMillis(), TimeUnit.MILLISECONDS).execute(() -> {
+            instrumentation.removeTransformer(recorder);
+            try {
+                Path temp = Files.createTempFile(profile.getParent(), profile.getFileName().toString(), ".tmp");
+                Files.write(temp, recorder.names(), StandardCharsets.UTF_8);
+                Files.move(temp, profile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ignored) {
+                // we'll try recording again on the next run
+            }
+        });
+    }
+
+    private static class Recorder implements ClassFileTransformer {
+        private final Set<String> names = new LinkedHashSet<>();
+
+        @Override
+        public byte[] transform(ClassLoader loader, String className, Class<?> redefined,
+                                ProtectionDomain domain, byte[] buffer) {
+            if (redefined != null || className == null) return null;
+            for (String prefix : PREFIXES) {
+                if (className.startsWith(prefix)) {
+                    synchronized (names) {
+                        names.add(className.replace('/', '.'));
+                    }
+                    break;
+                }
+            }
+            return null;
+        }
+
+        private List<String> names() {
+            synchronized (names) {
+                return new ArrayList<>(names);
+            }
+        }
+    }
+}
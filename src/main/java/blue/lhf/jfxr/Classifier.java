@@ -1,32 +1,53 @@
 package blue.lhf.jfxr;
 
-import java.util.Objects;
+import java.util.List;
 import java.util.function.Supplier;
 
 public class Classifier {
     public static final Classifier MAC = new Classifier("mac"),
+            MAC_AARCH64 = new Classifier("mac-aarch64"),
             WINDOWS = new Classifier("win"),
             LINUX = new Classifier("linux"),
-            DETECT = new Classifier(() -> Platform.getPlatform().name().toLowerCase());
+            LINUX_AARCH64 = new Classifier("linux-aarch64"),
+            DETECT = new Classifier(Classifier::detect);
 
     public static final Classifier[] ALL = new Classifier[]{
             MAC, WINDOWS, LINUX
     };
 
-    private final Supplier<String> supplier;
+    // Most specific first, JFXR picks the first one the repository actually has
+    private final Supplier<List<String>> supplier;
 
     private Classifier(String text) {
-        this(() -> text);
+        this(() -> List.of(text));
     }
 
-    private Classifier(Supplier<String> supplier) {
+    private Classifier(Supplier<List<String>> supplier) {
         this.supplier = supplier;
     }
 
     public String get() {
+        return candidates().get(0);
+    }
+
+    public List<String> candidates() {
         return supplier.get();
     }
 
+    private static List<String> detect() {
+        String arch = Platform.getArch();
+        return switch (Platform.getPlatform()) {
+            case WIN -> arch.equals("x86") ? List.of("win-x86", "win") : List.of("win");
+            case LINUX -> switch (arch) {
+                case "aarch64" -> List.of("linux-aarch64", "linux");
+                case "arm32" -> List.of("linux-arm32-monocle", "linux");
+                default -> List.of("linux");
+            };
+            case MAC -> Platform.isArmMac() ? List.of("mac-aarch64", "mac") : List.of("mac");
+            case UNKNOWN -> List.of("unknown");
+        };
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -37,6 +58,11 @@ public class Classifier {
 
     @Override
     public int hashCode() {
-        return Objects.hash(supplier);
+        return get().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return get();
     }
 }
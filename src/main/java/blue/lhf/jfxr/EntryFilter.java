@@ -0,0 +1,52 @@
+package blue.lhf.jfxr;
+
+import java.util.Locale;
+import java.util.function.Predicate;
+
+/**
+ * Selects which entries of a JavaFX jar are fetched. The id names the resulting
+ * partial jar in the output directory, so different filters never share a file.
+ */
+public record EntryFilter(String id, Predicate<String> predicate) implements Predicate<String> {
+    /**
+     * Keeps classes and resources, dropping every native library.
+     */
+    public static final EntryFilter CLASSES = new EntryFilter("classes", name -> !isNative(name));
+
+    /**
+     * Keeps classes and resources, and only the native libraries this platform can load.
+     */
+    public static final EntryFilter PLATFORM = new EntryFilter(
+            Platform.getPlatform().name().toLowerCase(Locale.ROOT),
+            name -> !isNative(name) || isNativeFor(Platform.getPlatform(), name)
+    );
+
+    public EntryFilter {
+        if (!id.matches("[A-Za-z0-9_-]+"))
+            throw new IllegalArgumentException("Filter id must be alphanumeric, got '" + id + "'");
+    }
+
+    public static EntryFilter of(String id, Predicate<String> predicate) {
+        return new EntryFilter(id, predicate);
+    }
+
+    @Override
+    public boolean test(String name) {
+        return predicate.test(name);
+    }
+
+    static boolean isNative(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".dll") || lower.endsWith(".so") || lower.endsWith(".dylib") || lower.endsWith(".jnilib");
+    }
+
+    static boolean isNativeFor(Platform platform, String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return switch (platform) {
+            case WIN -> lower.endsWith(".dll");
+            case LINUX -> lower.endsWith(".so");
+            case MAC -> lower.endsWith(".dylib") || lower.endsWith(".jnilib");
+            case UNKNOWN -> false;
+        };
+    }
+}
@@ -1,25 +1,37 @@
 package blue.lhf.jfxr;
 
+import blue.lhf.jfxr.source.*;
 import blue.lhf.jfxr.util.*;
-import io.github.bluelhf.tasks.Task;
 import org.apache.openjpa.enhance.InstrumentationFactory;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStream;
 import java.lang.instrument.Instrumentation;
+import java.net.InetSocketAddress;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.jar.JarFile;
 
 @SuppressWarnings({"unused"})
 public class JFXR implements Callable<CompletableFuture<Void>> {
-    // Instrumentation is used to add JARs to the System Class Loader at runtime
-    protected static Instrumentation instrumentation = InstrumentationFactory.getInstrumentation();
+    // Instrumentation is used to add JARs to the System Class Loader at runtime, it is attached lazily
+    protected static CompletableFuture<Instrumentation> instrumentation;
+    // Shared by every JFXR in this JVM so overlapping calls download and register each jar only once
+    private static final SingleFlight<ArtifactKey, Void> DOWNLOADS = new SingleFlight<>();
+    private static final Set<Path> REGISTERED = new HashSet<>();
     protected final URI repository;
     protected final String group;
     protected final String project;
@@ -28,10 +40,23 @@ public class JFXR implements Callable<CompletableFuture<Void>> {
     protected final Set<Classifier> classifiers;
     protected final ThrowingRunnable runnable;
     protected final Path outDir;
+    protected final ArtifactSource source;
+    protected final EntryFilter entries;
+    protected final EntryStore store;
+    protected final Duration preloadWindow;
+    protected final long cacheLimit;
+    protected final Duration cacheMaxAge;
+    protected final Checksums checksums;
+    protected final InetSocketAddress serveAddress;
+    protected final boolean repack;
+    protected final Lockfile lock;
 
     protected JFXR(URI repository, String group, String project, String version,
                    Set<String> modules, Set<Classifier> classifiers,
-                   ThrowingRunnable runnable, Path outDir) {
+                   ThrowingRunnable runnable, Path outDir, ArtifactSource source,
+                   EntryFilter entries, EntryStore store, Duration preloadWindow,
+                   long cacheLimit, Duration cacheMaxAge, Checksums checksums,
+                   InetSocketAddress serveAddress, boolean repack, Lockfile lock) {
         this.repository = repository;
         this.group = group;
         this.project = project;
@@ -40,6 +65,16 @@ public class JFXR implements Callable<CompletableFuture<Void>> {
         this.classifiers = classifiers;
         this.runnable = runnable;
         this.outDir = outDir;
+        this.source = source;
+        this.entries = entries;
+        this.store = store;
+        this.preloadWindow = preloadWindow;
+        this.cacheLimit = cacheLimit;
+        this.cacheMaxAge = cacheMaxAge;
+        this.checksums = checksums;
+        this.serveAddress = serveAddress;
+        this.repack = repack;
+        this.lock = lock;
     }
 
     public static JFXR.Builder builder(String javaFxVersion) {
@@ -47,6 +82,10 @@ public class JFXR implements Callable<CompletableFuture<Void>> {
     }
 
     protected TargetData getData(String module, Classifier classifier) {
+        return getData(module, classifier.get());
+    }
+
+    protected TargetData getData(String module, String classifier) {
         URI groupURI = repository.resolve(group.replace(".", "/") + "/");
         String subproject = project + (module.isBlank() ? "" : "-" + module);
         URI projectURI = groupURI.resolve(subproject + "/");
@@ -55,71 +94,360 @@ public class JFXR implements Callable<CompletableFuture<Void>> {
                 groupURI,
                 projectURI,
                 versionURI,
-                versionURI.resolve(subproject + "-" + version + "-" + classifier.get() + ".jar")
+                versionURI.resolve(subproject + "-" + version + "-" + classifier + ".jar")
         );
     }
 
     @Override
     public CompletableFuture<Void> call() throws IOException {
-        URI groupURI = repository.resolve(group.replace(".", "/") + "/");
-        List<Task<?, ?>> tasks = new ArrayList<>();
+        Set<Path> needed = ConcurrentHashMap.newKeySet();
+        Map<Path, CompletableFuture<Void>> downloads = new ConcurrentHashMap<>();
+        // Downloads are only scheduled once their module resolves, which may be after cancellation
+        AtomicBoolean cancelled = new AtomicBoolean();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        if (Files.notExists(outDir))
+            Files.createDirectories(outDir);
+        Downloader.LIMITER.persistTo(outDir.resolve("concurrency.properties"));
+        if (serveAddress != null) CacheServer.start(outDir, serveAddress);
 
         for (String module : modules) {
+            if (isProvided(module)) continue;
+
+            // Classifiers resolving to the same candidates are the same jar, so only schedule it once
+            Set<List<String>> scheduled = new HashSet<>();
             for (Classifier classifier : classifiers) {
-                TargetData data = getData(module, classifier);
-                Path file = outDir.resolve(data.version()
-                        .relativize(data.jar())
-                        .getPath()
-                );
+                List<String> candidates = classifier.candidates();
+                if (!scheduled.add(candidates)) continue;
+
+                futures.add(resolve(module, candidates)
+                        .thenCompose(resolved -> provide(module, resolved, needed, downloads, cancelled)));
+            }
+        }
+
+        CompletableFuture<Void> registered = CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+        // Cache upkeep runs alongside the callback, which may not return until the app exits
+        registered.thenRunAsync((ThrowingRunnable) () -> maintain(needed), Downloader.DOWNLOAD_POOL);
+
+        CompletableFuture<Void> result = registered.thenRun(() -> {
+            if (preloadWindow != null) preloader().start(attached());
+            if (runnable != null) runnable.run();
+        });
+        result.whenComplete((unused, throwable) -> {
+            if (!result.isCancelled()) return;
+            cancelled.set(true);
+            downloads.values().forEach(future -> future.cancel(true));
+        });
+        return result;
+    }
+
+    // Each application gets its own profile, since the output directory may be shared between several
+    private ClassPreloader preloader() {
+        Path application = null;
+        if (runnable != null) {
+            try {
+                CodeSource source = runnable.getClass().getProtectionDomain().getCodeSource();
+                if (source != null && source.getLocation() != null) application = Path.of(source.getLocation().toURI());
+            } catch (URISyntaxException | IllegalArgumentException | SecurityException ignored) {
+                // e.g. loaded from somewhere that isn't a file, it shares the default profile
+            }
+        }
 
-                if (Files.notExists(outDir))
-                    Files.createDirectories(outDir);
+        String key = application == null ? "default" : Integer.toHexString(application.toAbsolutePath().toString().hashCode());
+        return new ClassPreloader(outDir.resolve("preload-" + version + "-" + key + ".txt"), preloadWindow, application);
+    }
+
+    /**
+     * Picks the most specific of {@code candidates} that exists. The lockfile settles this if it
+     * lists any of them, and so does an earlier launch that recorded its answer in the cache
+     * manifest. Otherwise the sources are probed for all of them in parallel unless the most
+     * specific one is already cached.
+     */
+    protected CompletableFuture<String> resolve(String module, List<String> candidates) {
+        for (String candidate : candidates) {
+            if (lock.contains(getPath(getData(module, candidate)))) return CompletableFuture.completedFuture(candidate);
+        }
 
-                if (Files.isReadable(file)) {
+        String preferred = candidates.get(0);
+        if (candidates.size() == 1 || isPresent(getFile(getData(module, preferred))))
+            return CompletableFuture.completedFuture(preferred);
+
+        CacheManifest manifest = new CacheManifest(outDir);
+        String name = getFile(getData(module, preferred)).getFileName().toString();
+        try {
+            String resolved = manifest.resolved(name);
+            if (resolved != null && candidates.contains(resolved)) return CompletableFuture.completedFuture(resolved);
+        } catch (IOException ignored) {
+            // an unreadable manifest only costs us the probes
+        }
+
+        // A probe that fails answers null, which unlike false doesn't rule the candidate out for good
+        List<CompletableFuture<Boolean>> probes = candidates.stream()
+                .map(candidate -> source.exists(getPath(getData(module, candidate)))
+                        .exceptionally(throwable -> null))
+                .toList();
+        return CompletableFuture.allOf(probes.toArray(CompletableFuture[]::new)).thenApply(unused -> {
+            for (int i = 0; i < candidates.size(); i++) {
+                if (!Boolean.TRUE.equals(probes.get(i).join())) continue;
+                // Only a less specific answer needs remembering, the preferred jar is found by its file,
+                // and only once every more specific candidate is known to be missing
+                if (i > 0 && probes.subList(0, i).stream().allMatch(probe -> Boolean.FALSE.equals(probe.join()))) {
                     try {
-                        add(file);
-                        continue;
-                    } catch (Exception ignored) {
-                        // jar may be corrupt, try re-downloading it
+                        manifest.resolved(name, candidates.get(i));
+                    } catch (IOException ignored) {
+                        // we'll probe again next time
                     }
                 }
-                OutputStream stream = Files.newOutputStream(file);
-                try {
-                    tasks.add(Downloader.download(
-                        data.jar().toURL(),
-                        stream
-                    ).onResult((ThrowingConsumer<Void>) (unused) -> {
-                        stream.close();
-                        add(file);
-                    }));
-                } catch (IOException e) {
-                    stream.close();
-                    throw e;
-                }
+                return candidates.get(i);
             }
+            // Nothing answered, e.g. when offline, so settle for whatever we have cached
+            for (String candidate : candidates) {
+                if (isPresent(getFile(getData(module, candidate)))) return candidate;
+            }
+            return preferred;
+        });
+    }
+
+    private CompletableFuture<Void> provide(String module, String classifier, Set<Path> needed,
+                                            Map<Path, CompletableFuture<Void>> downloads, AtomicBoolean cancelled) {
+        TargetData data = getData(module, classifier);
+        Path file = getFile(data);
+        if (!needed.add(file) || isRegistered(file)) return CompletableFuture.completedFuture(null);
+
+        CompletableFuture<Void> ready = CompletableFuture.completedFuture(null);
+        if (!isIntact(data, file)) {
+            if (cancelled.get()) return CompletableFuture.failedFuture(new CancellationException());
+            ready = DOWNLOADS.run(new ArtifactKey(data.jar(), file), () -> fetch(data, file));
+            downloads.put(file, ready);
+            // Either this sees the flag or the canceller sees the download
+            if (cancelled.get()) ready.cancel(true);
         }
 
-        return CompletableFuture.allOf(
-                tasks.stream().map(Task::getBackingFuture).toArray(CompletableFuture[]::new)
-        ).thenRun(() -> {
-            if (runnable != null) runnable.run();
+        // The self-attach overlaps with the downloads and is only awaited once a jar needs registering
+        CompletableFuture<Instrumentation> agent = instrumentation(outDir);
+        return ready.thenCompose(unused -> agent)
+                .thenAccept((ThrowingConsumer<Instrumentation>) inst -> add(inst, file));
+    }
+
+    protected void maintain(Set<Path> needed) throws IOException {
+        // The downloads are done, so this is when the limits they taught us are written out
+        Downloader.LIMITER.flush();
+        CacheManifest manifest = new CacheManifest(outDir);
+        manifest.touch(needed, version);
+        if (repack) repack(manifest, needed);
+
+        Set<Path> keep = new HashSet<>(needed);
+        synchronized (JFXR.class) {
+            keep.addAll(REGISTERED);
+        }
+        manifest.evict(cacheLimit, cacheMaxAge, keep);
+    }
+
+    /**
+     * Rewrites the jars in {@code files} with STORED entries for the next launch, recording the
+     * digest of each rewritten jar next to the original one.
+     */
+    protected void repack(CacheManifest manifest, Set<Path> files) {
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            try {
+                if (manifest.isRepacked(name) || !isValidJar(file)) continue;
+                if (!JarRepacker.isStored(file)) JarRepacker.repack(file);
+                manifest.repacked(name, Checksums.sha1(file), file);
+            } catch (IOException ignored) {
+                // e.g. the jar is locked by the class loader on Windows, it still works as it is
+            }
+        }
+    }
+
+    protected String getPath(TargetData data) {
+        return repository.relativize(data.jar()).getPath();
+    }
+
+    protected Path getFile(TargetData data) {
+        String name = data.version().relativize(data.jar()).getPath();
+        if (entries != null) name = name.substring(0, name.length() - ".jar".length()) + "." + entries.id() + ".jar";
+        return outDir.resolve(name).toAbsolutePath().normalize();
+    }
+
+    protected CompletableFuture<Void> fetch(TargetData data, Path file) {
+        CompletableFuture<Void> result = obtain(data, file);
+        // Only a cache server needs the repository's digest of jars from other sources, and nothing waits for it
+        if (serveAddress != null && entries == null)
+            result.thenRunAsync(() -> publish(getPath(data), file), Downloader.DOWNLOAD_POOL);
+        return result;
+    }
+
+    private CompletableFuture<Void> obtain(TargetData data, Path file) {
+        Path part = file.resolveSibling(file.getFileName() + ".part");
+        if (store == null) return complete(retrieve(data, part), part, file);
+
+        String name = file.getFileName().toString();
+        if (store.contains(name)) {
+            // A damaged store falls back to the network, without resuming from the half-rebuilt jar.
+            // So does a stored jar that isn't the one in the lockfile, which would otherwise be rebuilt on every launch
+            String expected = entries == null ? checksums.known(getPath(data)) : null;
+            return complete(CompletableFuture.runAsync((ThrowingRunnable) () -> {
+                if (expected != null && !expected.equals(store.digest(name)))
+                    throw new IOException("Jar in the store doesn't match the lockfile: " + name);
+                store.rebuild(name, part);
+                new CacheManifest(outDir).digest(name, expected);
+            }, Downloader.DOWNLOAD_POOL
+            ).exceptionallyCompose(throwable -> CompletableFuture.runAsync((ThrowingRunnable) () ->
+                    Files.deleteIfExists(part)
+            ).thenCompose(unused -> retrieve(data, part))), part, file);
+        }
+
+        CompletableFuture<Void> result = complete(retrieve(data, part), part, file);
+        // Ingesting is only for the benefit of later runs, so it stays off the registration path
+        result.thenRunAsync((ThrowingRunnable) () -> store.ingest(file, name), Downloader.DOWNLOAD_POOL);
+        return result;
+    }
+
+    private CompletableFuture<Void> retrieve(TargetData data, Path part) {
+        String path = getPath(data);
+        CompletableFuture<Boolean> fetch = source.fetch(path, part);
+        CompletableFuture<Void> result = fetch.thenAccept((ThrowingConsumer<Boolean>) found -> {
+            if (!found) throw new FileNotFoundException("No source has " + path);
+        }).thenCompose(unused -> verify(path, part));
+        result.whenComplete((unused, throwable) -> {
+            if (result.isCancelled()) fetch.cancel(true);
         });
+        return result;
+    }
+
+    /**
+     * Checks a whole jar against the digest in the lockfile, if there is one, and records the digest
+     * so the jar may be served to peers. Without a lockfile the digest is left to {@link #publish},
+     * so jars from local sources don't wait on the network.
+     */
+    private CompletableFuture<Void> verify(String path, Path part) {
+        String name = part.getFileName().toString();
+        String jar = name.substring(0, name.length() - ".part".length());
+        String expected = entries == null ? checksums.known(path) : null;
+
+        return CompletableFuture.runAsync((ThrowingRunnable) () -> {
+            if (expected != null) {
+                String actual = Checksums.sha1(part);
+                if (!expected.equals(actual)) {
+                    Files.deleteIfExists(part);
+                    throw new IOException("Checksum mismatch for " + path + ", expected " + expected + " but got " + actual);
+                }
+            }
+            new CacheManifest(outDir).digest(jar, expected);
+        }, Downloader.DOWNLOAD_POOL);
+    }
+
+    /**
+     * Records the repository's digest of {@code file} if the jar matches it, so the cache server may serve it.
+     */
+    private void publish(String path, Path file) {
+        String name = file.getFileName().toString();
+        checksums.sha1(path).thenAcceptAsync((ThrowingConsumer<String>) expected -> {
+            if (expected == null) return;
+            CacheManifest manifest = new CacheManifest(outDir);
+            if (expected.equals(manifest.digest(name))) return;
+            if (expected.equals(Checksums.sha1(file))) manifest.digest(name, expected);
+        }, Downloader.DOWNLOAD_POOL);
+    }
+
+    private static CompletableFuture<Void> complete(CompletableFuture<Void> download, Path part, Path file) {
+        CompletableFuture<Void> result = download.thenRun((ThrowingRunnable) () ->
+                Files.move(part, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE));
+        result.whenComplete((unused, throwable) -> {
+            if (result.isCancelled()) download.cancel(true);
+        });
+        return result;
+    }
+
+    // A module already resolved in the boot layer, e.g. on a JDK that bundles JavaFX, needs no jars at all
+    protected boolean isProvided(String module) {
+        return ModuleLayer.boot().findModule(project + (module.isBlank() ? "" : "." + module)).isPresent();
+    }
+
+    protected static synchronized CompletableFuture<Instrumentation> instrumentation(Path agentDir) {
+        if (instrumentation == null) {
+            InstrumentationFactory.setAgentJarDirectory(agentDir.toFile());
+            instrumentation = CompletableFuture.supplyAsync(InstrumentationFactory::getInstrumentation, runnable -> {
+                Thread thread = new Thread(runnable, "JFXR Agent Bootstrap");
+                thread.setDaemon(true);
+                thread.start();
+            });
+        }
+        return instrumentation;
+    }
+
+    protected static synchronized Instrumentation attached() {
+        return instrumentation == null ? null : instrumentation.getNow(null);
     }
 
-    private void add(Path file) throws IOException {
-        JarFile jarFile = new JarFile(file.toFile());
-        instrumentation.appendToSystemClassLoaderSearch(jarFile);
+    /**
+     * Whether {@code file} is a good copy of the jar. A jar in the lockfile is good if the cache
+     * manifest recorded the lockfile's digest for it and its size matches, which needs neither the
+     * network nor reading the jar. A repacked one is hashed instead. Any other jar is good if it opens.
+     */
+    private boolean isIntact(TargetData data, Path file) {
+        Lockfile.Artifact artifact = entries == null ? lock.get(getPath(data)) : null;
+        if (artifact == null) return isValidJar(file);
+        if (!Files.isRegularFile(file)) return false;
+
+        CacheManifest manifest = new CacheManifest(outDir);
+        String name = file.getFileName().toString();
+        try {
+            if (!artifact.sha1().equals(manifest.digest(name))) return false;
+            if (!manifest.isRepacked(name)) return Files.size(file) == artifact.size();
+            // A repacked jar no longer matches the lockfile. One untouched since it was rewritten is still
+            // that jar, anything else must match the digest recorded then
+            if (manifest.isUnchanged(name, file)) return true;
+            return manifest.verified(name, Checksums.sha1(file));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean isValidJar(Path file) {
+        if (!Files.isReadable(file)) return false;
+        try {
+            new JarFile(file.toFile()).close();
+            return true;
+        } catch (IOException e) {
+            // jar may be corrupt, try re-downloading it
+            return false;
+        }
+    }
+
+    private static boolean isPresent(Path file) {
+        return isRegistered(file) || isValidJar(file);
+    }
+
+    private static synchronized boolean isRegistered(Path file) {
+        return REGISTERED.contains(file.toAbsolutePath().normalize());
+    }
+
+    private static synchronized void add(Instrumentation inst, Path file) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        if (REGISTERED.contains(key)) return;
+        if (inst == null) throw new IOException("Cannot register " + key + ", instrumentation is unavailable");
+
+        JarFile jarFile = new JarFile(key.toFile());
+        inst.appendToSystemClassLoaderSearch(jarFile);
         jarFile.close();
+        REGISTERED.add(key);
 
         System.setProperty("java.class.path", System.getProperty("java.class.path", "")
                 + File.pathSeparator
-                + file.toAbsolutePath());
+                + key);
+    }
+
+    record ArtifactKey(URI uri, Path target) {
     }
 
     record TargetData(URI group, URI project, URI version, URI jar) {
     }
 
     public static class Builder {
+        private static final Duration PEER_CONNECT_TIMEOUT = Duration.ofSeconds(1);
+        private static final Duration DEFAULT_PRELOAD_WINDOW = Duration.ofSeconds(10);
         protected boolean done = false;
         protected Set<String> modules = new HashSet<>();
         protected String repository = "https://repo.maven.apache.org/maven2/";
@@ -129,6 +457,23 @@ public class JFXR implements Callable<CompletableFuture<Void>> {
         protected Path outDir = Path.of(System.getProperty("java.io.tmpdir"), "jfxr");
         protected Set<Classifier> classifiers = new HashSet<>();
         protected ThrowingRunnable runnable;
+        protected Duration connectTimeout = Downloader.Settings.DEFAULT.connectTimeout();
+        protected Duration readTimeout = Downloader.Settings.DEFAULT.readTimeout();
+        protected Duration stallWindow = Downloader.Settings.DEFAULT.stallWindow();
+        protected long stallFloor = Downloader.Settings.DEFAULT.stallFloor();
+        protected int attempts = Downloader.Settings.DEFAULT.attempts();
+        protected Duration backoff = Downloader.Settings.DEFAULT.backoff();
+        protected Duration maxBackoff = Downloader.Settings.DEFAULT.maxBackoff();
+        protected EntryFilter entries;
+        protected List<ArtifactSource> sources = new ArrayList<>();
+        protected Path store;
+        protected Duration preloadWindow;
+        protected long cacheLimit = 1024L * 1024 * 1024;
+        protected Duration cacheMaxAge = Duration.ofDays(90);
+        protected List<URI> peers = new ArrayList<>();
+        protected InetSocketAddress serveAddress;
+        protected boolean repack = false;
+        protected Lockfile lock = Lockfile.EMPTY;
 
         {
             classifiers.add(Classifier.DETECT);
@@ -217,14 +562,185 @@ public class JFXR implements Callable<CompletableFuture<Void>> {
             return this;
         }
 
+        public Builder connectTimeout(Duration timeout) {
+            checkDone();
+            this.connectTimeout = timeout;
+            return this;
+        }
+
+        public Builder readTimeout(Duration timeout) {
+            checkDone();
+            this.readTimeout = timeout;
+            return this;
+        }
+
+        public Builder stallTimeout(Duration window, long minBytesPerSecond) {
+            checkDone();
+            this.stallWindow = window;
+            this.stallFloor = minBytesPerSecond;
+            return this;
+        }
+
+        public Builder retries(int attempts, Duration backoff, Duration maxBackoff) {
+            checkDone();
+            if (attempts < 1) throw new IllegalArgumentException("At least one attempt is required");
+            this.attempts = attempts;
+            this.backoff = backoff;
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        public Builder entries(EntryFilter filter) {
+            checkDone();
+            this.entries = filter;
+            return this;
+        }
+
+        /**
+         * Adds a source to try before the repository. Sources are tried in the order they were added,
+         * so the fastest should come first.
+         */
+        public Builder source(ArtifactSource source) {
+            checkDone();
+            sources.add(source);
+            return this;
+        }
+
+        public Builder mirror(Path root) {
+            return source(new MirrorSource(root, true, Downloader.DOWNLOAD_POOL));
+        }
+
+        public Builder embedded(String prefix) {
+            return source(EmbeddedSource.self(prefix, Downloader.DOWNLOAD_POOL));
+        }
+
+        public Builder store(Path store) {
+            checkDone();
+            this.store = store;
+            return this;
+        }
+
+        public Builder preload() {
+            return preload(DEFAULT_PRELOAD_WINDOW);
+        }
+
+        public Builder preload(Duration window) {
+            checkDone();
+            this.preloadWindow = window;
+            return this;
+        }
+
+        public Builder dontPreload() {
+            checkDone();
+            this.preloadWindow = null;
+            return this;
+        }
+
+        public Builder cacheLimit(long bytes) {
+            checkDone();
+            this.cacheLimit = bytes;
+            return this;
+        }
+
+        public Builder cacheMaxAge(Duration age) {
+            checkDone();
+            this.cacheMaxAge = age;
+            return this;
+        }
+
+        /**
+         * Adds other hosts serving their cache with {@link #serve(int)}, tried before the repository.
+         * Jars from peers must match the digest the repository publishes for them.
+         */
+        public Builder peers(String... uris) {
+            checkDone();
+            for (String uri : uris) peers.add(URI.create(uri.endsWith("/") ? uri : uri + "/"));
+            return this;
+        }
+
+        public Builder serve(int port) {
+            return serve(new InetSocketAddress(port));
+        }
+
+        /**
+         * Serves the verified jars of the output directory to other JFXR instances on {@code address}.
+         */
+        public Builder serve(InetSocketAddress address) {
+            checkDone();
+            this.serveAddress = address;
+            return this;
+        }
+
+        /**
+         * Rewrites cached jars with uncompressed entries in the background, so later launches
+         * load classes without inflating them. Repacked jars are larger and aren't served to peers.
+         */
+        public Builder repack() {
+            checkDone();
+            this.repack = true;
+            return this;
+        }
+
+        /**
+         * Uses the lockfile generated by the {@code jfxrLock} Gradle task, if the application
+         * bundles one, for exact-size downloads and offline checks of cached jars.
+         */
+        public Builder lockfile() {
+            checkDone();
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            if (loader == null) loader = JFXR.class.getClassLoader();
+            try (InputStream stream = loader.getResourceAsStream(Lockfile.RESOURCE)) {
+                if (stream != null) this.lock = Lockfile.load(stream);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Invalid lockfile " + Lockfile.RESOURCE, e);
+            }
+            return this;
+        }
+
+        public Builder lockfile(Path file) {
+            checkDone();
+            try {
+                this.lock = Lockfile.load(file);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Cannot read lockfile " + file, e);
+            }
+            return this;
+        }
+
         public JFXR build() {
             Set<Classifier> actualClassifiers = new HashSet<>(classifiers);
             Set<String> actualModules = new HashSet<>(modules);
 
+            URI repositoryURI = URI.create(repository);
+            Downloader.Settings settings = new Downloader.Settings(connectTimeout, readTimeout,
+                    stallWindow, stallFloor, attempts, backoff, maxBackoff);
+            boolean local = "file".equals(repositoryURI.getScheme());
+            // Digests always come from the repository itself, never from a peer. A lookup gets a single
+            // attempt, so an unreachable repository costs a peer download or cache server one timeout
+            Checksums checksums = new Checksums(local
+                    ? new MirrorSource(Path.of(repositoryURI), false, Downloader.DOWNLOAD_POOL)
+                    : new HttpSource(repositoryURI, new Downloader.Settings(connectTimeout, readTimeout,
+                    stallWindow, stallFloor, 1, Duration.ZERO, Duration.ZERO), null), lock.digests());
+
+            List<ArtifactSource> actualSources = new ArrayList<>(sources);
+            if (!peers.isEmpty()) {
+                // A peer that doesn't answer quickly is skipped rather than retried
+                actualSources.add(new PeerSource(peers, checksums, new Downloader.Settings(
+                        connectTimeout.compareTo(PEER_CONNECT_TIMEOUT) < 0 ? connectTimeout : PEER_CONNECT_TIMEOUT,
+                        readTimeout, stallWindow, stallFloor, 1, backoff, maxBackoff)));
+            }
+            actualSources.add(local
+                    ? new MirrorSource(Path.of(repositoryURI), true, Downloader.DOWNLOAD_POOL)
+                    : new HttpSource(repositoryURI, settings, entries, lock.sizes()));
+
             JFXR jfxr = new JFXR(
-                    URI.create(repository), group,
+                    repositoryURI, group,
                     baseProject, version, actualModules,
-                    actualClassifiers, runnable, outDir
+                    actualClassifiers, runnable, outDir,
+                    ArtifactSource.chain(actualSources),
+                    entries, store == null ? null : new EntryStore(store),
+                    preloadWindow, cacheLimit, cacheMaxAge,
+                    checksums, serveAddress, repack, lock
             );
 
             done = true;
@@ -0,0 +1,78 @@
+package blue.lhf.jfxr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The artifacts resolved at build time by the {@code jfxrLock} Gradle task, kept as
+ * {@code <path>.size} and {@code <path>.sha1} properties, where the path is relative
+ * to the repository. Knowing sizes and digests up front lets JFXR split downloads into
+ * exact segments and check cached jars without asking the repository anything.
+ */
+class Lockfile {
+    static final String RESOURCE = "META-INF/jfxr.lock";
+    static final Lockfile EMPTY = new Lockfile(Map.of());
+
+    private static final String SIZE = ".size";
+    private static final String SHA1 = ".sha1";
+
+    private final Map<String, Artifact> artifacts;
+
+    private Lockfile(Map<String, Artifact> artifacts) {
+        this.artifacts = artifacts;
+    }
+
+    static Lockfile load(Path file) throws IOException {
+        try (InputStream stream = Files.newInputStream(file)) {
+            return load(stream);
+        }
+    }
+
+    static Lockfile load(InputStream stream) throws IOException {
+        Properties properties = new Properties();
+        properties.load(stream);
+
+        Map<String, Artifact> artifacts = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.endsWith(SIZE)) continue;
+            String path = key.substring(0, key.length() - SIZE.length());
+            String sha1 = properties.getProperty(path + SHA1);
+            if (sha1 == null) throw new IOException("Lockfile has no digest for " + path);
+            try {
+                artifacts.put(path, new Artifact(Long.parseLong(properties.getProperty(key)), sha1.toLowerCase(Locale.ROOT)));
+            } catch (NumberFormatException e) {
+                throw new IOException("Lockfile has an invalid size for " + path, e);
+            }
+        }
+        return new Lockfile(artifacts);
+    }
+
+    Artifact get(String path) {
+        return artifacts.get(path);
+    }
+
+    boolean contains(String path) {
+        return artifacts.containsKey(path);
+    }
+
+    Map<String, Long> sizes() {
+        Map<String, Long> sizes = new HashMap<>();
+        artifacts.forEach((path, artifact) -> sizes.put(path, artifact.size()));
+        return sizes;
+    }
+
+    Map<String, String> digests() {
+        Map<String, String> digests = new HashMap<>();
+        artifacts.forEach((path, artifact) -> digests.put(path, artifact.sha1()));
+        return digests;
+    }
+
+    record Artifact(long size, String sha1) {
+    }
+}
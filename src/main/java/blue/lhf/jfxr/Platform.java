@@ -53,6 +53,7 @@ public enum Platform {UNKNOWN, WIN, LINUX, MAC;
     private static final Platform platform;
     private static final int majorVersion;
     private static final int minorVersion;
+    private static final String arch;
 
     static {
         String os = System.getProperty("os.name").toLowerCase();
@@ -70,6 +71,15 @@ public enum Platform {UNKNOWN, WIN, LINUX, MAC;
             platform = Platform.UNKNOWN;
         }
 
+        String osArch = System.getProperty("os.arch", "").toLowerCase();
+        arch = switch (osArch) {
+            case "amd64", "x86_64", "x64" -> "x64";
+            case "aarch64", "arm64" -> "aarch64";
+            case "x86", "i386", "i486", "i586", "i686" -> "x86";
+            case "arm", "arm32", "armv7l" -> "arm32";
+            default -> osArch;
+        };
+
         String version = System.getProperty("os.version");
         String[] parts = version.split(Pattern.quote("."));
 
@@ -95,6 +105,15 @@ public enum Platform {UNKNOWN, WIN, LINUX, MAC;
         return platform;
     }
 
+    /**
+     * @return the canonical name of the CPU architecture, one of
+     * <code>x64</code>, <code>aarch64</code>, <code>x86</code>, <code>arm32</code>
+     * or the raw <code>os.arch</code> value if it is none of those.
+     */
+    static String getArch() {
+        return arch;
+    }
+
     static int getMajorVersion() {
         return majorVersion;
     }
@@ -112,7 +131,7 @@ public enum Platform {UNKNOWN, WIN, LINUX, MAC;
     }
 
     static boolean isArmMac() {
-        return (isMac() && "aarch64".equals(System.getProperty("os.arch")));
+        return (isMac() && "aarch64".equals(getArch()));
     }
 
     static boolean isLinux() {
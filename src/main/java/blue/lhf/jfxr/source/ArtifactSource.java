@@ -0,0 +1,34 @@
+package blue.lhf.jfxr.source;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Somewhere JFXR can get artifacts from. Artifacts are addressed by their path in a
+ * Maven-layout repository, e.g. {@code org/openjfx/javafx-base/18/javafx-base-18-linux.jar}.
+ */
+public interface ArtifactSource {
+    /**
+     * Fetches the artifact at {@code path} into {@code target}, replacing whatever it contains.
+     *
+     * @return a future that completes with false if this source does not have the artifact,
+     * or exceptionally if the artifact could not be fetched
+     */
+    CompletableFuture<Boolean> fetch(String path, Path target);
+
+    /**
+     * Checks whether this source has the artifact at {@code path} without fetching it.
+     * Sources that can't tell cheaply answer false.
+     */
+    default CompletableFuture<Boolean> exists(String path) {
+        return CompletableFuture.completedFuture(false);
+    }
+
+    /**
+     * Tries each of {@code sources} in turn until one of them has the artifact.
+     */
+    static ArtifactSource chain(List<? extends ArtifactSource> sources) {
+        return new ChainSource(sources);
+    }
+}
@@ -0,0 +1,78 @@
+package blue.lhf.jfxr.source;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Tries a list of sources in order. A source that fails is treated like one that doesn't
+ * have the artifact, and the failure is only reported if no later source has it either.
+ */
+public class ChainSource implements ArtifactSource {
+    protected final List<? extends ArtifactSource> sources;
+
+    public ChainSource(List<? extends ArtifactSource> sources) {
+        this.sources = List.copyOf(sources);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> fetch(String path, Path target) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        attempt(0, path, target, null, result);
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> exists(String path) {
+        // A failed probe isn't a no, so it's reported unless another source says yes
+        List<CompletableFuture<Boolean>> probes = sources.stream().map(source -> source.exists(path)).toList();
+        return CompletableFuture.allOf(probes.toArray(CompletableFuture[]::new))
+                .handle((unused, throwable) -> {
+                    if (probes.stream().anyMatch(probe -> !probe.isCompletedExceptionally() && probe.join()))
+                        return true;
+                    if (throwable != null)
+                        throw throwable instanceof CompletionException completion ? completion : new CompletionException(throwable);
+                    return false;
+                });
+    }
+
+    private void attempt(int index, String path, Path target, Throwable failure, CompletableFuture<Boolean> result) {
+        if (result.isDone()) return;
+        if (index >= sources.size()) {
+            if (failure != null) result.completeExceptionally(failure);
+            else result.complete(false);
+            return;
+        }
+
+        CompletableFuture<Boolean> current;
+        try {
+            current = sources.get(index).fetch(path, target);
+        } catch (RuntimeException e) {
+            current = CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<Boolean> attempt = current;
+        result.whenComplete((found, throwable) -> {
+            if (result.isCancelled()) attempt.cancel(true);
+        });
+        attempt.whenComplete((found, throwable) -> {
+            if (throwable == null && found) {
+                result.complete(true);
+                return;
+            }
+
+            // Don't let the next source resume from what this one left behind
+            try {
+                Files.deleteIfExists(target);
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+            attempt(index + 1, path, target, cause != null ? cause : failure, result);
+        });
+    }
+}
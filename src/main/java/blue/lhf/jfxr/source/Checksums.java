@@ -0,0 +1,95 @@
+package blue.lhf.jfxr.source;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Looks up the SHA-1 digests a trusted source publishes next to its artifacts,
+ * as {@code <path>.sha1} files in the Maven layout. Digests known in advance,
+ * e.g. from a lockfile, are used without asking the source.
+ */
+public class Checksums {
+    protected final ArtifactSource trusted;
+    private final Map<String, CompletableFuture<String>> digests = new ConcurrentHashMap<>();
+    private final Map<String, String> known;
+
+    public Checksums(ArtifactSource trusted) {
+        this(trusted, Map.of());
+    }
+
+    public Checksums(ArtifactSource trusted, Map<String, String> known) {
+        this.trusted = trusted;
+        this.known = Map.copyOf(known);
+        known.forEach((path, digest) -> digests.put(path, CompletableFuture.completedFuture(digest)));
+    }
+
+    /**
+     * @return the digest of the artifact at {@code path} if it was known in advance, otherwise null
+     */
+    public String known(String path) {
+        return known.get(path);
+    }
+
+    /**
+     * @return a future completing with the expected digest of the artifact at {@code path}
+     * in lowercase hex, or with null if no digest is available. Concurrent lookups share one
+     * request, and only a digest that was found is remembered, so a failed lookup is retried.
+     */
+    public CompletableFuture<String> sha1(String path) {
+        CompletableFuture<String> lookup = digests.computeIfAbsent(path, key -> {
+            Path temp;
+            try {
+                temp = Files.createTempFile("jfxr", ".sha1");
+            } catch (IOException e) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            return trusted.fetch(key + ".sha1", temp).thenApply(found -> {
+                if (!found) return null;
+                try {
+                    // Some repositories follow the digest with the file name
+                    String content = Files.readString(temp, StandardCharsets.US_ASCII).trim();
+                    String digest = content.split("\\s+", 2)[0].toLowerCase(Locale.ROOT);
+                    return digest.matches("[0-9a-f]{40}") ? digest : null;
+                } catch (IOException e) {
+                    return null;
+                }
+            }).exceptionally(throwable -> null).whenComplete((digest, throwable) -> {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            });
+        });
+        lookup.thenAccept(digest -> {
+            if (digest == null) digests.remove(path, lookup);
+        });
+        return lookup;
+    }
+
+    public static String sha1(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is unavailable", e);
+        }
+
+        try (InputStream stream = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = stream.read(buffer)) >= 0) digest.update(buffer, 0, read);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -0,0 +1,138 @@
+package blue.lhf.jfxr.source;
+
+import blue.lhf.jfxr.util.ZipDirectory;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.CodeSource;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Jars bundled inside another archive, usually the application's own jar, under
+ * {@code <prefix><path>}. The outer archive is memory-mapped, so stored entries are
+ * written straight from the page cache and deflated ones are inflated without copying
+ * them onto the heap first.
+ */
+public class EmbeddedSource implements ArtifactSource {
+    protected final Path archive;
+    protected final String prefix;
+    protected final Executor executor;
+    private MappedByteBuffer mapped;
+    private Map<String, ZipDirectory.Entry> entries;
+
+    public EmbeddedSource(Path archive, String prefix, Executor executor) {
+        this.archive = archive;
+        this.prefix = prefix;
+        this.executor = executor;
+    }
+
+    /**
+     * A source reading from the archive JFXR itself was loaded from.
+     */
+    public static EmbeddedSource self(String prefix, Executor executor) {
+        CodeSource code = EmbeddedSource.class.getProtectionDomain().getCodeSource();
+        Path archive = null;
+        try {
+            if (code != null && code.getLocation() != null) archive = Path.of(code.getLocation().toURI());
+        } catch (URISyntaxException | IllegalArgumentException ignored) {
+        }
+        return new EmbeddedSource(archive, prefix, executor);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> exists(String path) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return archive != null && Files.isRegularFile(archive) && entries().containsKey(prefix + path);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> fetch(String path, Path target) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                if (archive == null || !Files.isRegularFile(archive)) return false;
+
+                ZipDirectory.Entry entry = entries().get(prefix + path);
+                if (entry == null) return false;
+
+                write(entry, target);
+                return true;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    private synchronized Map<String, ZipDirectory.Entry> entries() throws IOException {
+        if (entries != null) return entries;
+
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int tail = Math.min(mapped.capacity(), ZipDirectory.MAX_END_SIZE);
+        ZipDirectory.End end = ZipDirectory.findEnd(mapped.slice(mapped.capacity() - tail, tail));
+        Map<String, ZipDirectory.Entry> map = new HashMap<>();
+        for (ZipDirectory.Entry entry : ZipDirectory.entries(mapped.slice((int) end.offset(), (int) end.size()))) {
+            if (!entry.isDirectory()) map.put(entry.name(), entry);
+        }
+        return entries = map;
+    }
+
+    private void write(ZipDirectory.Entry entry, Path target) throws IOException {
+        ByteBuffer header = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int offset = (int) entry.offset();
+        int nameLength = Short.toUnsignedInt(header.getShort(offset + 26));
+        int extraLength = Short.toUnsignedInt(header.getShort(offset + 28));
+        ByteBuffer data = mapped.slice(offset + 30 + nameLength + extraLength, (int) entry.compressedSize());
+
+        try (FileChannel output = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            switch (entry.method()) {
+                case ZipEntry.STORED -> {
+                    while (data.hasRemaining()) output.write(data);
+                }
+                case ZipEntry.DEFLATED -> inflate(data, output);
+                default -> throw new ZipException("Unsupported compression method " + entry.method() + " for " + entry.name());
+            }
+        }
+    }
+
+    private static void inflate(ByteBuffer data, FileChannel output) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (!inflater.finished()) {
+                buffer.clear();
+                if (inflater.inflate(buffer) == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new ZipException("Truncated deflated entry");
+                buffer.flip();
+                while (buffer.hasRemaining()) output.write(buffer);
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+}
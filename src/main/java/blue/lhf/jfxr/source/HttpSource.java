@@ -0,0 +1,119 @@
+package blue.lhf.jfxr.source;
+
+import blue.lhf.jfxr.util.Downloader;
+import blue.lhf.jfxr.util.RemoteZip;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Predicate;
+
+/**
+ * A Maven-layout repository served over HTTP. With an entry filter, jars are built from
+ * only the matching entries using Range requests, falling back to the whole jar for
+ * servers that don't support them. Whole jars of a known size are downloaded in
+ * several segments at once.
+ */
+public class HttpSource implements ArtifactSource {
+    protected final URI repository;
+    protected final Downloader.Settings settings;
+    protected final Predicate<String> entries;
+    protected final Map<String, Long> sizes;
+
+    public HttpSource(URI repository, Downloader.Settings settings, Predicate<String> entries) {
+        this(repository, settings, entries, Map.of());
+    }
+
+    public HttpSource(URI repository, Downloader.Settings settings, Predicate<String> entries, Map<String, Long> sizes) {
+        this.repository = repository;
+        this.settings = settings;
+        this.entries = entries;
+        this.sizes = Map.copyOf(sizes);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> fetch(String path, Path target) {
+        URL url;
+        try {
+            url = repository.resolve(path).toURL();
+        } catch (IOException | IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        Long size = sizes.get(path);
+        if (entries == null) return found(download(url, target, size));
+
+        // Without range support the whole jar is downloaded instead, and cancelling reaches whichever is running
+        CompletableFuture<Boolean> partial = RemoteZip.fetch(url, target, entries, settings).getBackingFuture();
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        partial.whenComplete((fetched, throwable) -> {
+            if (throwable != null) {
+                result.completeExceptionally(throwable);
+            } else if (fetched) {
+                result.complete(null);
+            } else if (!result.isDone()) {
+                CompletableFuture<Void> whole = download(url, target, size);
+                whole.whenComplete((unused, failure) -> {
+                    if (failure != null) result.completeExceptionally(failure);
+                    else result.complete(null);
+                });
+                result.whenComplete((unused, failure) -> {
+                    if (result.isCancelled()) whole.cancel(true);
+                });
+            }
+        });
+        result.whenComplete((unused, throwable) -> {
+            if (result.isCancelled()) partial.cancel(true);
+        });
+        return found(result);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> exists(String path) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                URLConnection connection = repository.resolve(path).toURL().openConnection();
+                if (!(connection instanceof HttpURLConnection http)) return false;
+
+                http.setRequestMethod("HEAD");
+                http.setConnectTimeout((int) settings.connectTimeout().toMillis());
+                http.setReadTimeout((int) settings.readTimeout().toMillis());
+                int code = http.getResponseCode();
+                http.disconnect();
+                if (code == 404 || code == 410) return false;
+                if (code >= 400) throw new IOException("HTTP " + code + " for " + http.getURL());
+                return true;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, Downloader.DOWNLOAD_POOL);
+    }
+
+    protected CompletableFuture<Void> download(URL url, Path target, Long size) {
+        // A segmented download starts over, so a partial file is only resumed without a known size
+        if (size == null) return Downloader.download(url, target, settings).getBackingFuture();
+        return Downloader.download(url, target, size, settings).getBackingFuture();
+    }
+
+    // A missing artifact isn't a failure, the next source may have it
+    private static CompletableFuture<Boolean> found(CompletableFuture<Void> download) {
+        CompletableFuture<Boolean> result = download.handle((unused, throwable) -> {
+            if (throwable == null) return true;
+            Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+            if (cause instanceof RuntimeException && cause.getCause() instanceof FileNotFoundException) return false;
+            if (cause instanceof FileNotFoundException) return false;
+            throw throwable instanceof CompletionException completion ? completion : new CompletionException(throwable);
+        });
+        result.whenComplete((found, throwable) -> {
+            if (result.isCancelled()) download.cancel(true);
+        });
+        return result;
+    }
+}
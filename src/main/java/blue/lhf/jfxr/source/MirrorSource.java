@@ -0,0 +1,64 @@
+package blue.lhf.jfxr.source;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * A Maven-layout repository on a local or mounted file system. Artifacts are hardlinked
+ * into place when {@code link} is set and the file system allows it, and otherwise copied
+ * with {@link FileChannel#transferTo}, which lets the kernel copy without going through the heap.
+ */
+public class MirrorSource implements ArtifactSource {
+    protected final Path root;
+    protected final boolean link;
+    protected final Executor executor;
+
+    public MirrorSource(Path root, boolean link, Executor executor) {
+        this.root = root;
+        this.link = link;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> exists(String path) {
+        return CompletableFuture.completedFuture(Files.isRegularFile(root.resolve(path)));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> fetch(String path, Path target) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                Path file = root.resolve(path);
+                if (!Files.isRegularFile(file)) return false;
+
+                Files.deleteIfExists(target);
+                if (link) {
+                    try {
+                        Files.createLink(target, file);
+                        return true;
+                    } catch (IOException | UnsupportedOperationException ignored) {
+                        // e.g. a different file system, fall back to copying
+                    }
+                }
+
+                try (FileChannel input = FileChannel.open(file, StandardOpenOption.READ);
+                     FileChannel output = FileChannel.open(target, StandardOpenOption.CREATE,
+                             StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    long size = input.size();
+                    for (long position = 0; position < size; ) {
+                        position += input.transferTo(position, size - position, output);
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+}
@@ -0,0 +1,61 @@
+package blue.lhf.jfxr.source;
+
+import blue.lhf.jfxr.util.Downloader;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Other hosts running a JFXR cache server. Peers are tried in random order to spread the
+ * load between them, and anything a peer serves must match the digest published by a
+ * trusted source, so an artifact without a published digest is never taken from a peer.
+ */
+public class PeerSource implements ArtifactSource {
+    protected final List<URI> peers;
+    protected final Checksums checksums;
+    protected final Downloader.Settings settings;
+
+    public PeerSource(List<URI> peers, Checksums checksums, Downloader.Settings settings) {
+        this.peers = List.copyOf(peers);
+        this.checksums = checksums;
+        this.settings = settings;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> fetch(String path, Path target) {
+        List<URI> order = new ArrayList<>(peers);
+        Collections.shuffle(order);
+        return checksums.sha1(path).thenCompose(expected -> expected == null
+                ? CompletableFuture.completedFuture(false)
+                : attempt(order, 0, path, target, expected));
+    }
+
+    private CompletableFuture<Boolean> attempt(List<URI> order, int index, String path, Path target, String expected) {
+        if (index >= order.size()) return CompletableFuture.completedFuture(false);
+
+        CompletableFuture<Void> download;
+        try {
+            Files.deleteIfExists(target);
+            download = Downloader.download(order.get(index).resolve(path).toURL(), target, settings).getBackingFuture();
+        } catch (IOException | IllegalArgumentException e) {
+            return attempt(order, index + 1, path, target, expected);
+        }
+
+        return download.handle((unused, throwable) -> {
+            if (throwable != null) return false;
+            try {
+                return expected.equals(Checksums.sha1(target));
+            } catch (IOException e) {
+                return false;
+            }
+        }).thenCompose(verified -> verified
+                ? CompletableFuture.completedFuture(true)
+                : attempt(order, index + 1, path, target, expected));
+    }
+}
@@ -2,21 +2,71 @@ package blue.lhf.jfxr.util;
 
 import io.github.bluelhf.tasks.Task;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.concurrent.Executor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Downloader {
     private static final int DEFAULT_BUFFER_SIZE = 65535;
+    // Segments smaller than this aren't worth another connection
+    private static final long MIN_SEGMENT = 1024 * 1024;
+    private static final int MAX_SEGMENTS = 4;
 
     public static record Progress(long read, long total) {
     }
-    public static ExecutorService DOWNLOAD_POOL = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * @param connectTimeout how long to wait for a connection to be established
+     * @param readTimeout how long a single read may block before the attempt fails
+     * @param stallWindow the window over which throughput is measured
+     * @param stallFloor the minimum throughput, in bytes per second, over a stall window
+     * @param attempts how many times a download is attempted before giving up
+     * @param backoff the delay before the first retry, doubled for every retry after it
+     * @param maxBackoff the upper bound for the delay between retries
+     */
+    public static record Settings(Duration connectTimeout, Duration readTimeout,
+                                  Duration stallWindow, long stallFloor,
+                                  int attempts, Duration backoff, Duration maxBackoff) {
+        public static final Settings DEFAULT = new Settings(
+                Duration.ofSeconds(10), Duration.ofSeconds(30),
+                Duration.ofSeconds(15), 1024,
+                5, Duration.ofMillis(500), Duration.ofSeconds(30)
+        );
+    }
+
+    public static class StallException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public StallException(String message) {
+            super(message);
+        }
+    }
+
+    // Concurrency per host is governed by LIMITER, so the pool itself doesn't need a bound
+    public static ExecutorService DOWNLOAD_POOL = Executors.newCachedThreadPool();
+    public static final HostLimiter LIMITER = new HostLimiter();
 
     static {
         Runtime.getRuntime().addShutdownHook(new Thread(() -> DOWNLOAD_POOL.shutdownNow()));
@@ -24,6 +74,8 @@ public class Downloader {
 
     public static Task<Progress, Void> download(URL url, OutputStream output) throws IOException {
         URLConnection connection = url.openConnection();
+        connection.setConnectTimeout((int) Settings.DEFAULT.connectTimeout().toMillis());
+        connection.setReadTimeout((int) Settings.DEFAULT.readTimeout().toMillis());
         Task<Progress, Void> task = Task.of((Task<Progress, Void>.Delegate delegate) -> {
             try (InputStream stream = connection.getInputStream()) {
                 long length = connection.getContentLengthLong();
@@ -46,4 +98,364 @@ public class Downloader {
         task.runAsync(DOWNLOAD_POOL);
         return task;
     }
+
+    /**
+     * Downloads {@code url} into {@code target}, resuming from whatever {@code target}
+     * already contains. Failed attempts are retried with jittered exponential backoff,
+     * and cancelling the task's backing future aborts the open connection.
+     */
+    public static Task<Progress, Void> download(URL url, Path target, Settings settings) {
+        Transfer transfer = new Transfer();
+        Task<Progress, Void> task = Task.of((Task<Progress, Void>.Delegate delegate) -> {
+            transfer.begin();
+            try {
+                retrying(url, settings, transfer, () -> attempt(url, target, settings, transfer, delegate));
+                return null;
+            } catch (InterruptedException e) {
+                throw new CancellationException();
+            } finally {
+                transfer.end();
+            }
+        });
+
+        task.getBackingFuture().whenComplete((unused, throwable) -> {
+            if (task.getBackingFuture().isCancelled()) transfer.cancel();
+        });
+
+        task.runAsync(DOWNLOAD_POOL);
+        return task;
+    }
+
+    /**
+     * Downloads {@code url}, which is known to be {@code size} bytes long, into {@code target}
+     * as several Range requests at once, each writing its own part of the file. Each segment is
+     * retried on its own, and the whole file is downloaded in one piece if the server ignores
+     * Range requests. Files too small to split are downloaded like {@link #download(URL, Path, Settings)}.
+     */
+    public static Task<Progress, Void> download(URL url, Path target, long size, Settings settings) {
+        int count = (int) Math.min(MAX_SEGMENTS, size / MIN_SEGMENT);
+        if (count < 2) return download(url, target, settings);
+
+        Transfer transfer = new Transfer();
+        List<Transfer> transfers = new ArrayList<>();
+        for (int i = 0; i < count; i++) transfers.add(new Transfer());
+
+        Task<Progress, Void> task = Task.of((Task<Progress, Void>.Delegate delegate) -> {
+            transfer.begin();
+            try {
+                try {
+                    segmented(url, target, size, settings, transfers, delegate);
+                } catch (RangeException e) {
+                    Files.deleteIfExists(target);
+                    retrying(url, settings, transfer, () -> attempt(url, target, settings, transfer, delegate));
+                }
+                return null;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } catch (InterruptedException e) {
+                throw new CancellationException();
+            } finally {
+                transfer.end();
+            }
+        });
+
+        task.getBackingFuture().whenComplete((unused, throwable) -> {
+            if (!task.getBackingFuture().isCancelled()) return;
+            transfer.cancel();
+            transfers.forEach(Transfer::cancel);
+        });
+
+        task.runAsync(DOWNLOAD_POOL);
+        return task;
+    }
+
+    private static void segmented(URL url, Path target, long size, Settings settings, List<Transfer> transfers,
+                                  Task<Progress, Void>.Delegate delegate) throws IOException {
+        AtomicLong done = new AtomicLong();
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<CompletableFuture<Void>> segments = new ArrayList<>();
+            for (int i = 0; i < transfers.size(); i++) {
+                Transfer transfer = transfers.get(i);
+                Segment segment = new Segment(size * i / transfers.size(), size * (i + 1) / transfers.size() - 1);
+                segments.add(CompletableFuture.runAsync(() -> {
+                    transfer.begin();
+                    try {
+                        retrying(url, settings, transfer, () -> {
+                            long read = segment(url, segment, size, settings, transfer, (data, position) -> {
+                                while (data.hasRemaining()) position += channel.write(data, position);
+                            });
+                            delegate.setProgress(new Progress(done.addAndGet(read), size));
+                            return read;
+                        });
+                    } catch (InterruptedException e) {
+                        throw new CancellationException();
+                    } finally {
+                        transfer.end();
+                    }
+                }, DOWNLOAD_POOL));
+            }
+
+            try {
+                CompletableFuture.allOf(segments.toArray(CompletableFuture[]::new)).join();
+            } catch (CompletionException | CancellationException e) {
+                // One failed segment fails the file, so the others needn't finish
+                transfers.forEach(Transfer::cancel);
+                Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                if (cause instanceof RuntimeException runtime && runtime.getCause() instanceof IOException io) throw io;
+                if (cause instanceof RuntimeException runtime) throw runtime;
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    // Returns the number of bytes transferred by this attempt, continuing from where the last one stopped
+    static long segment(URL url, Segment segment, long size, Settings settings, Transfer transfer,
+                        Sink sink) throws IOException {
+        long start = segment.position;
+        if (start > segment.end) return 0;
+
+        try {
+            HttpURLConnection connection = ranged(url, "bytes=" + start + "-" + segment.end, settings, transfer);
+            String expected = "bytes " + start + "-" + segment.end + "/" + size;
+            if (!expected.equals(connection.getHeaderField("Content-Range")))
+                throw new IOException("Expected " + expected + " from " + url + " but got " + connection.getHeaderField("Content-Range"));
+            return copy(url, connection, segment, settings, transfer, sink);
+        } finally {
+            transfer.release();
+        }
+    }
+
+    // Sends a Range request, the caller releases the transfer once it's done with the connection
+    static HttpURLConnection ranged(URL url, String range, Settings settings, Transfer transfer) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout((int) settings.connectTimeout().toMillis());
+        connection.setReadTimeout((int) settings.readTimeout().toMillis());
+        connection.setRequestProperty("Range", range);
+        transfer.connect(connection);
+
+        if (!(connection instanceof HttpURLConnection http)) throw new RangeException(url);
+        int code = http.getResponseCode();
+        if (code == 404 || code == 410) throw new FileNotFoundException(url.toString());
+        if (code == 416) throw new RangeException(url);
+        if (code >= 400) throw new HttpException(code, url);
+        if (code != 206) throw new RangeException(url);
+        return http;
+    }
+
+    // Reads a Range response into the sink up to the end of the segment, watching for stalls and cancellation
+    static long copy(URL url, HttpURLConnection connection, Segment segment, Settings settings, Transfer transfer,
+                     Sink sink) throws IOException {
+        long start = segment.position;
+        StallMonitor monitor = new StallMonitor(url, settings);
+        try (InputStream stream = connection.getInputStream()) {
+            byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+            int read;
+            while (segment.position <= segment.end
+                    && (read = stream.read(buffer, 0, (int) Math.min(DEFAULT_BUFFER_SIZE, segment.end - segment.position + 1))) >= 0) {
+                if (transfer.isCancelled()) throw new InterruptedIOException("Download cancelled");
+                sink.write(ByteBuffer.wrap(buffer, 0, read), segment.position);
+                segment.position += read;
+                monitor.add(read, segment.position);
+            }
+        }
+
+        if (segment.position <= segment.end)
+            throw new IOException("Segment of " + url + " ended at " + segment.position + " of " + segment.end);
+        return segment.position - start;
+    }
+
+    // Runs attempts until one succeeds, sleeping with backoff between them
+    static void retrying(URL url, Settings settings, Transfer transfer, Attempt attempt) throws InterruptedException {
+        for (int number = 1; ; number++) {
+            HostLimiter.Permit permit = LIMITER.acquire(url.getHost());
+            try {
+                permit.succeeded(attempt.run());
+                return;
+            } catch (IOException e) {
+                if (transfer.isCancelled()) throw new CancellationException();
+                if (isOverload(e)) permit.overloaded();
+                if (number >= settings.attempts() || !isRetryable(e)) throw new RuntimeException(e);
+            } finally {
+                permit.release();
+            }
+
+            Thread.sleep(backoff(settings, number));
+        }
+    }
+
+    // Returns the number of bytes transferred by this attempt
+    private static long attempt(URL url, Path target, Settings settings, Transfer transfer,
+                                Task<Progress, Void>.Delegate delegate) throws IOException {
+        long existing = Files.exists(target) ? Files.size(target) : 0;
+
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout((int) settings.connectTimeout().toMillis());
+        connection.setReadTimeout((int) settings.readTimeout().toMillis());
+        if (existing > 0) connection.setRequestProperty("Range", "bytes=" + existing + "-");
+        transfer.connect(connection);
+
+        try {
+            boolean append = false;
+            if (connection instanceof HttpURLConnection http) {
+                int code = http.getResponseCode();
+                if (code == 416 && existing > 0) return 0; // we already have every byte
+                if (code == 404 || code == 410) throw new FileNotFoundException(url.toString());
+                if (code >= 400) throw new HttpException(code, url);
+                append = code == 206;
+            }
+
+            long transferred = append ? existing : 0;
+            long length = connection.getContentLengthLong();
+            long total = length < 0 ? -1 : transferred + length;
+            StallMonitor monitor = new StallMonitor(url, settings);
+
+            try (InputStream stream = connection.getInputStream();
+                 OutputStream output = append
+                         ? Files.newOutputStream(target, StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+                         : Files.newOutputStream(target)) {
+
+                byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+                int read;
+                while ((read = stream.read(buffer, 0, DEFAULT_BUFFER_SIZE)) >= 0) {
+                    if (transfer.isCancelled()) throw new InterruptedIOException("Download cancelled");
+                    output.write(buffer, 0, read);
+                    transferred += read;
+                    monitor.add(read, transferred);
+
+                    delegate.setProgress(new Progress(transferred, total));
+                }
+            }
+
+            if (total >= 0 && transferred < total)
+                throw new IOException("Download of " + url + " ended after " + transferred + " of " + total + " bytes");
+            return transferred - (append ? existing : 0);
+        } finally {
+            transfer.release();
+        }
+    }
+
+    private static boolean isRetryable(IOException e) {
+        if (e instanceof FileNotFoundException || e instanceof RangeException) return false;
+        if (e instanceof HttpException http) return http.code >= 500 || http.code == 408 || http.code == 429;
+        return true;
+    }
+
+    // Resets, timeouts, stalls and throttling responses suggest too many connections, a missing file does not
+    private static boolean isOverload(IOException e) {
+        if (e instanceof FileNotFoundException) return false;
+        if (e instanceof HttpException http) return http.code >= 500 || http.code == 429;
+        return e instanceof SocketException || e instanceof SocketTimeoutException || e instanceof StallException;
+    }
+
+    private static long backoff(Settings settings, int attempt) {
+        long base = settings.backoff().toMillis() << Math.min(attempt - 1, 20);
+        long delay = Math.min(base, settings.maxBackoff().toMillis());
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private static class HttpException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final int code;
+
+        private HttpException(int code, URL url) {
+            super("HTTP " + code + " for " + url);
+            this.code = code;
+        }
+    }
+
+    // Thrown when a server answers a Range request with anything but the requested range
+    static class RangeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private RangeException(URL url) {
+            super(url + " doesn't support Range requests");
+        }
+    }
+
+    @FunctionalInterface
+    interface Attempt {
+        long run() throws IOException;
+    }
+
+    // Receives the bytes of a Range response along with their position in the remote file
+    @FunctionalInterface
+    interface Sink {
+        void write(ByteBuffer data, long position) throws IOException;
+    }
+
+    // An inclusive range of a remote file, along with how much of it has been read so far
+    static class Segment {
+        private final long end;
+        private long position;
+
+        Segment(long start, long end) {
+            this.position = start;
+            this.end = end;
+        }
+    }
+
+    // Fails a transfer whose throughput stays below the stall floor for a whole window
+    private static class StallMonitor {
+        private final URL url;
+        private final Settings settings;
+        private long windowStart = System.nanoTime();
+        private long windowBytes;
+
+        private StallMonitor(URL url, Settings settings) {
+            this.url = url;
+            this.settings = settings;
+        }
+
+        private void add(int read, long position) throws StallException {
+            windowBytes += read;
+            long elapsed = System.nanoTime() - windowStart;
+            if (elapsed < settings.stallWindow().toNanos()) return;
+
+            if (windowBytes * 1_000_000_000L / elapsed < settings.stallFloor())
+                throw new StallException("Download of " + url + " stalled at " + position + " bytes");
+            windowStart += elapsed;
+            windowBytes = 0;
+        }
+    }
+
+    // Tracks the thread and connection of a running download, so cancelling can reach them
+    static class Transfer {
+        private Thread worker;
+        private URLConnection connection;
+        private boolean cancelled;
+
+        synchronized void begin() {
+            if (cancelled) throw new CancellationException();
+            worker = Thread.currentThread();
+        }
+
+        synchronized void end() {
+            worker = null;
+            Thread.interrupted();
+        }
+
+        synchronized void connect(URLConnection connection) {
+            this.connection = connection;
+        }
+
+        synchronized void release() {
+            connection = null;
+        }
+
+        private synchronized void disconnect() {
+            if (connection instanceof HttpURLConnection http) http.disconnect();
+            connection = null;
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            disconnect();
+            if (worker != null) worker.interrupt();
+        }
+    }
 }
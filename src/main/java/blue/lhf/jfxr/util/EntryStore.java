@@ -0,0 +1,187 @@
+package blue.lhf.jfxr.util;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * A jar store that deduplicates at the entry level. Every entry is kept once under the
+ * SHA-256 of its raw bytes, local header and compressed data as they appear in the jar,
+ * and each jar is an index of those entries plus the bytes around them. Jars built for
+ * different platforms share their identical classes and only add their own natives, and
+ * standard jars are rebuilt from the store byte for byte, so they keep their original digest.
+ * <p>
+ * Files are only ever written under a temporary name and moved into place,
+ * so the store can be shared between processes and hosts.
+ */
+public class EntryStore {
+    private static final String HEADER = "jfxr-index 2";
+    private static final String HEAD = "head";
+    private static final String ENTRY = "entry";
+    private static final String TAIL = "tail";
+
+    protected final Path root;
+
+    public EntryStore(Path root) {
+        this.root = root;
+    }
+
+    public boolean contains(String jar) {
+        return Files.isReadable(index(jar));
+    }
+
+    /**
+     * Adds every entry of {@code file} to the store, indexed under {@code jar}.
+     */
+    public void ingest(Path file, String jar) throws IOException {
+        Path index = index(jar);
+        Files.createDirectories(index.getParent());
+        Path temp = Files.createTempFile(index.getParent(), jar, ".tmp");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int tailSize = (int) Math.min(size, ZipDirectory.MAX_END_SIZE);
+            ZipDirectory.End end = ZipDirectory.findEnd(read(channel, size - tailSize, tailSize));
+            List<ZipDirectory.Entry> entries = ZipDirectory.entries(read(channel, end.offset(), (int) end.size()));
+
+            // Each entry spans from its local header to the next one, so the pieces cover the whole jar
+            MessageDigest sha1 = messageDigest("SHA-1");
+            List<String> lines = new ArrayList<>();
+            long position = entries.isEmpty() ? end.offset() : entries.get(0).offset();
+            if (position > 0) lines.add(HEAD + " " + put(piece(channel, 0, position, sha1)));
+            for (int i = 0; i < entries.size(); i++) {
+                long next = i + 1 < entries.size() ? entries.get(i + 1).offset() : end.offset();
+                if (next < position) throw new ZipException("Unsupported entry layout in " + file);
+                lines.add(ENTRY + " " + put(piece(channel, position, next, sha1)) + " " + entries.get(i).name());
+                position = next;
+            }
+            lines.add(TAIL + " " + put(piece(channel, position, size, sha1)));
+
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(HEADER + " " + HexFormat.of().formatHex(sha1.digest()));
+                writer.newLine();
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Rebuilds the jar indexed under {@code jar} into {@code target}, failing if it doesn't
+     * match the digest the jar had when it was ingested.
+     */
+    public void rebuild(String jar, Path target) throws IOException {
+        MessageDigest sha1 = messageDigest("SHA-1");
+        String expected;
+        try (BufferedReader reader = Files.newBufferedReader(index(jar), StandardCharsets.UTF_8);
+             OutputStream output = new DigestOutputStream(
+                     new BufferedOutputStream(Files.newOutputStream(target)), sha1)) {
+            expected = expected(jar, reader.readLine());
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ", 3);
+                if (parts.length < 2) throw new IOException("Corrupt index for " + jar + ": " + line);
+                try (InputStream stream = new InflaterInputStream(Files.newInputStream(object(parts[1])))) {
+                    stream.transferTo(output);
+                }
+            }
+        }
+
+        String actual = HexFormat.of().formatHex(sha1.digest());
+        if (!actual.equals(expected))
+            throw new IOException("Rebuilt " + jar + " has digest " + actual + " instead of " + expected);
+    }
+
+    /**
+     * @return the SHA-1 digest the jar indexed under {@code jar} had when it was ingested
+     */
+    public String digest(String jar) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(index(jar), StandardCharsets.UTF_8)) {
+            return expected(jar, reader.readLine());
+        }
+    }
+
+    // Indexes from before rebuilds were exact have no header, they're replaced when the jar is next fetched
+    private static String expected(String jar, String header) throws IOException {
+        if (header == null || !header.startsWith(HEADER + " "))
+            throw new IOException("Outdated or corrupt index for " + jar);
+        return header.substring(HEADER.length() + 1);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException("Jar ended early");
+        }
+        return buffer.flip();
+    }
+
+    private static byte[] piece(FileChannel channel, long from, long to, MessageDigest sha1) throws IOException {
+        byte[] bytes = read(channel, from, Math.toIntExact(to - from)).array();
+        sha1.update(bytes);
+        return bytes;
+    }
+
+    protected String put(byte[] content) throws IOException {
+        String hash = sha256(content);
+        Path object = object(hash);
+        if (Files.exists(object)) return hash;
+
+        Files.createDirectories(object.getParent());
+        Path temp = Files.createTempFile(object.getParent(), hash, ".tmp");
+        try {
+            try (OutputStream stream = new DeflaterOutputStream(Files.newOutputStream(temp))) {
+                stream.write(content);
+            }
+            Files.move(temp, object, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return hash;
+    }
+
+    protected Path index(String jar) {
+        return root.resolve("indexes").resolve(jar + ".idx");
+    }
+
+    protected Path object(String hash) {
+        return root.resolve("objects").resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private static String sha256(byte[] content) {
+        return HexFormat.of().formatHex(messageDigest("SHA-256").digest(content));
+    }
+
+    private static MessageDigest messageDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(algorithm + " is unavailable", e);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package blue.lhf.jfxr.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limits the number of requests in flight to each host, tuning the limit with additive
+ * increase and multiplicative decrease: the limit grows by one for every round of requests
+ * that doesn't lower the host's aggregate throughput, and halves when a request fails
+ * in a way that suggests the host or a proxy in front of it is overloaded. Requests that
+ * started before the last decrease fail for the same reason, so they don't halve it again.
+ * Learned limits can be persisted so the next run starts from them.
+ */
+public class HostLimiter {
+    private static final double MIN_LIMIT = 1;
+    private static final double MAX_LIMIT = 32;
+    private static final double INITIAL_LIMIT = 4;
+    // A round counts as no worse if its throughput is at least this fraction of the previous one
+    private static final double TOLERANCE = 0.9;
+
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+    private final Object flushLock = new Object();
+    private Path store;
+    private Properties persisted = new Properties();
+    private boolean dirty;
+    private Thread hook;
+
+    /**
+     * Loads limits learned by earlier runs from {@code store}, and saves new ones there
+     * whenever {@link #flush()} is called and when the VM shuts down.
+     */
+    public synchronized void persistTo(Path store) {
+        if (store.equals(this.store)) return;
+        this.store = store;
+        if (hook == null) {
+            hook = new Thread(this::flush, "JFXR Limiter Flush");
+            Runtime.getRuntime().addShutdownHook(hook);
+        }
+
+        Properties properties = new Properties();
+        if (Files.isReadable(store)) {
+            try (InputStream stream = Files.newInputStream(store)) {
+                properties.load(stream);
+            } catch (IOException ignored) {
+                // start from scratch
+            }
+        }
+        persisted = properties;
+    }
+
+    public int limit(String host) {
+        Host state = host(host);
+        synchronized (state) {
+            return (int) state.limit;
+        }
+    }
+
+    /**
+     * Blocks until a request to {@code host} may start.
+     */
+    public Permit acquire(String host) throws InterruptedException {
+        Host state = host(host);
+        synchronized (state) {
+            while (state.inFlight >= (int) state.limit) state.wait();
+            state.inFlight++;
+            return new Permit(state, state.decreases);
+        }
+    }
+
+    private Host host(String name) {
+        return hosts.computeIfAbsent(name, key -> {
+            double limit = INITIAL_LIMIT;
+            synchronized (this) {
+                String value = persisted.getProperty(key);
+                if (value != null) {
+                    try {
+                        limit = Math.max(MIN_LIMIT, Math.min(MAX_LIMIT, Double.parseDouble(value)));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+            return new Host(key, limit);
+        });
+    }
+
+    /**
+     * Writes the limits learned since the last flush to the store, if there is one.
+     */
+    public void flush() {
+        // Flushes take turns, so an older snapshot never overwrites a newer one
+        synchronized (flushLock) {
+            Properties snapshot;
+            Path target;
+            synchronized (this) {
+                if (!dirty || store == null) return;
+                snapshot = (Properties) persisted.clone();
+                target = store;
+                dirty = false;
+            }
+
+            try {
+                Files.createDirectories(target.toAbsolutePath().getParent());
+                Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".tmp");
+                try (OutputStream stream = Files.newOutputStream(temp)) {
+                    snapshot.store(stream, "Learned download concurrency per host");
+                }
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ignored) {
+                // we'll relearn the limit next time
+            }
+        }
+    }
+
+    // Adjustments only touch memory, flush() writes them out
+    private synchronized void save(String host, double limit) {
+        persisted.setProperty(host, String.valueOf(limit));
+        dirty = true;
+    }
+
+    private class Host {
+        private final String name;
+        private double limit;
+        private int inFlight;
+        private long roundStart = System.nanoTime();
+        private long roundBytes;
+        private int roundCompletions;
+        private double lastThroughput;
+        // Counts decreases, so a failure can tell whether its request started before the last one
+        private int decreases;
+
+        private Host(String name, double limit) {
+            this.name = name;
+            this.limit = limit;
+        }
+
+        private void complete(long bytes) {
+            double saved = -1;
+            synchronized (this) {
+                inFlight--;
+                roundBytes += bytes;
+                if (++roundCompletions >= (int) limit) {
+                    double elapsed = Math.max(1, System.nanoTime() - roundStart);
+                    double throughput = roundBytes / elapsed;
+                    if (throughput >= lastThroughput * TOLERANCE && limit < MAX_LIMIT) {
+                        limit = Math.min(MAX_LIMIT, limit + 1);
+                        saved = limit;
+                    }
+                    lastThroughput = throughput;
+                    startRound();
+                }
+                notifyAll();
+            }
+            if (saved >= 0) save(name, saved);
+        }
+
+        private void fail(int generation) {
+            double saved = -1;
+            synchronized (this) {
+                inFlight--;
+                if (generation == decreases) {
+                    decreases++;
+                    limit = Math.max(MIN_LIMIT, limit / 2);
+                    lastThroughput = 0;
+                    startRound();
+                    saved = limit;
+                }
+                notifyAll();
+            }
+            if (saved >= 0) save(name, saved);
+        }
+
+        private synchronized void release() {
+            inFlight--;
+            notifyAll();
+        }
+
+        private void startRound() {
+            roundStart = System.nanoTime();
+            roundBytes = 0;
+            roundCompletions = 0;
+        }
+    }
+
+    public class Permit {
+        private final Host host;
+        private final int generation;
+        private boolean released;
+
+        private Permit(Host host, int generation) {
+            this.host = host;
+            this.generation = generation;
+        }
+
+        /**
+         * Releases the permit after a request that transferred {@code bytes}.
+         */
+        public void succeeded(long bytes) {
+            if (mark()) host.complete(bytes);
+        }
+
+        /**
+         * Releases the permit after a request that failed because the host seems overloaded.
+         */
+        public void overloaded() {
+            if (mark()) host.fail(generation);
+        }
+
+        /**
+         * Releases the permit without learning anything from the request.
+         */
+        public void release() {
+            if (mark()) host.release();
+        }
+
+        private synchronized boolean mark() {
+            if (released) return false;
+            released = true;
+            return true;
+        }
+    }
+}
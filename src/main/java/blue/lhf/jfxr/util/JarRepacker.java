@@ -0,0 +1,70 @@
+package blue.lhf.jfxr.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Rewrites jars with every entry STORED rather than DEFLATED. Class loaders then read
+ * class bytes straight out of the page cache instead of inflating them on every launch,
+ * at the cost of a larger file.
+ */
+public class JarRepacker {
+    private JarRepacker() {
+    }
+
+    /**
+     * @return whether every entry of {@code file} is already STORED
+     */
+    public static boolean isStored(Path file) throws IOException {
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                if (entries.nextElement().getMethod() != ZipEntry.STORED) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Replaces {@code file} with a copy whose entries are all STORED, in the original order so
+     * the manifest stays first. The copy is written under a temporary name and moved into place.
+     */
+    public static void repack(Path file) throws IOException {
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (ZipFile zip = new ZipFile(file.toFile());
+                 ZipOutputStream output = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                output.setMethod(ZipOutputStream.STORED);
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    // The central directory already knows the sizes and CRC a STORED entry needs up front
+                    ZipEntry stored = new ZipEntry(entry.getName());
+                    stored.setMethod(ZipEntry.STORED);
+                    stored.setSize(entry.getSize());
+                    stored.setCompressedSize(entry.getSize());
+                    stored.setCrc(entry.getCrc());
+                    stored.setTime(entry.getTime());
+                    output.putNextEntry(stored);
+                    if (!entry.isDirectory()) {
+                        try (InputStream stream = zip.getInputStream(entry)) {
+                            stream.transferTo(output);
+                        }
+                    }
+                    output.closeEntry();
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package blue.lhf.jfxr.util;
+
+import io.github.bluelhf.tasks.Task;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds a local jar out of selected entries of a remote one, using HTTP Range requests
+ * to fetch only the central directory and the entries themselves. Every request is retried,
+ * watched for stalls and limited per host like any other download.
+ */
+public class RemoteZip {
+    // Selected entries closer together than this are fetched with one request, gap included
+    private static final long MERGE_GAP = 16 * 1024;
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+    private record Span(long start, long end, List<Integer> entries) {
+    }
+
+    private record Tail(byte[] bytes, long start, long length) {
+    }
+
+    /**
+     * Fetches the entries of the archive at {@code url} whose names match {@code filter} into {@code target}.
+     * Cancelling the task's backing future aborts the open connection.
+     *
+     * @return a task completing with false if the server does not support range requests,
+     * in which case {@code target} doesn't exist
+     */
+    public static Task<Downloader.Progress, Boolean> fetch(URL url, Path target, Predicate<String> filter,
+                                                          Downloader.Settings settings) {
+        Downloader.Transfer transfer = new Downloader.Transfer();
+        Task<Downloader.Progress, Boolean> task = Task.of((Task<Downloader.Progress, Boolean>.Delegate delegate) -> {
+            transfer.begin();
+            try {
+                try {
+                    fetch(url, target, filter, settings, transfer, delegate);
+                    return true;
+                } catch (RuntimeException e) {
+                    if (!(e.getCause() instanceof Downloader.RangeException)) throw e;
+                    Files.deleteIfExists(target);
+                    return false;
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } catch (InterruptedException e) {
+                throw new CancellationException();
+            } finally {
+                transfer.end();
+            }
+        });
+
+        task.getBackingFuture().whenComplete((unused, throwable) -> {
+            if (task.getBackingFuture().isCancelled()) transfer.cancel();
+        });
+
+        task.runAsync(Downloader.DOWNLOAD_POOL);
+        return task;
+    }
+
+    private static void fetch(URL url, Path target, Predicate<String> filter, Downloader.Settings settings,
+                              Downloader.Transfer transfer, Task<Downloader.Progress, Boolean>.Delegate delegate)
+            throws IOException, InterruptedException {
+        Tail tail = tail(url, settings, transfer);
+        ZipDirectory.End end = ZipDirectory.findEnd(ByteBuffer.wrap(tail.bytes()));
+        ByteBuffer central;
+        if (end.offset() >= tail.start()) {
+            central = ByteBuffer.wrap(tail.bytes(), (int) (end.offset() - tail.start()), (int) end.size()).slice();
+        } else {
+            byte[] bytes = new byte[Math.toIntExact(end.size())];
+            Downloader.Segment segment = new Downloader.Segment(end.offset(), end.offset() + end.size() - 1);
+            Downloader.retrying(url, settings, transfer, () -> Downloader.segment(url, segment, tail.length(), settings,
+                    transfer, (data, position) -> data.get(bytes, (int) (position - end.offset()), data.remaining())));
+            central = ByteBuffer.wrap(bytes);
+        }
+
+        List<ZipDirectory.Entry> entries = ZipDirectory.entries(central);
+        List<ZipDirectory.Entry> selected = new ArrayList<>();
+        List<Long> stops = new ArrayList<>();
+        List<Span> spans = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            ZipDirectory.Entry entry = entries.get(i);
+            if (!filter.test(entry.name())) continue;
+
+            // An entry runs up to the next one, which takes in any data descriptor after it
+            long start = entry.offset();
+            long stop = i + 1 < entries.size() ? entries.get(i + 1).offset() : end.offset();
+            Span last = spans.isEmpty() ? null : spans.get(spans.size() - 1);
+            if (last != null && start - last.end() <= MERGE_GAP) {
+                last.entries().add(selected.size());
+                spans.set(spans.size() - 1, new Span(last.start(), stop, last.entries()));
+            } else {
+                List<Integer> indices = new ArrayList<>();
+                indices.add(selected.size());
+                spans.add(new Span(start, stop, indices));
+            }
+            selected.add(entry);
+            stops.add(stop);
+        }
+
+        // Entries are laid out back to back up front, so a retried span can write wherever it resumes
+        long[] offsets = new long[selected.size()];
+        long written = 0;
+        for (int i = 0; i < selected.size(); i++) {
+            offsets[i] = written;
+            written += stops.get(i) - selected.get(i).offset();
+        }
+
+        long total = 0;
+        for (Span span : spans) total += span.end() - span.start();
+
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long done = 0;
+            for (Span span : spans) {
+                Downloader.Segment segment = new Downloader.Segment(span.start(), span.end() - 1);
+                Downloader.retrying(url, settings, transfer, () -> Downloader.segment(url, segment, tail.length(), settings,
+                        transfer, (data, position) -> {
+                            for (int index : span.entries()) {
+                                long from = Math.max(position, selected.get(index).offset());
+                                long to = Math.min(position + data.remaining(), stops.get(index));
+                                if (from >= to) continue;
+
+                                ByteBuffer part = data.duplicate();
+                                part.position(data.position() + (int) (from - position));
+                                part.limit(part.position() + (int) (to - from));
+                                long at = offsets[index] + from - selected.get(index).offset();
+                                while (part.hasRemaining()) at += channel.write(part, at);
+                            }
+                        }));
+                done += span.end() - span.start();
+                delegate.setProgress(new Downloader.Progress(done, total));
+            }
+
+            ByteArrayOutputStream directory = new ByteArrayOutputStream();
+            ZipDirectory.write(directory, selected, offsets, written);
+            ByteBuffer data = ByteBuffer.wrap(directory.toByteArray());
+            while (data.hasRemaining()) written += channel.write(data, written);
+        }
+    }
+
+    // The archive's length is only known once the server answers, so the tail is a suffix range
+    private static Tail tail(URL url, Downloader.Settings settings, Downloader.Transfer transfer) throws InterruptedException {
+        Tail[] tail = new Tail[1];
+        Downloader.retrying(url, settings, transfer, () -> {
+            try {
+                HttpURLConnection connection = Downloader.ranged(url, "bytes=-" + ZipDirectory.MAX_END_SIZE, settings, transfer);
+                String range = connection.getHeaderField("Content-Range");
+                Matcher matcher = range == null ? null : CONTENT_RANGE.matcher(range);
+                if (matcher == null || !matcher.matches())
+                    throw new IOException("Expected a Content-Range from " + url + " but got " + range);
+
+                long first = Long.parseLong(matcher.group(1));
+                long last = Long.parseLong(matcher.group(2));
+                long length = Long.parseLong(matcher.group(3));
+                if (last != length - 1 || last - first + 1 != Math.min(length, ZipDirectory.MAX_END_SIZE))
+                    throw new IOException("Expected the last " + ZipDirectory.MAX_END_SIZE + " bytes of " + url + " but got " + range);
+
+                byte[] bytes = new byte[(int) (last - first + 1)];
+                long read = Downloader.copy(url, connection, new Downloader.Segment(first, last), settings, transfer,
+                        (data, position) -> data.get(bytes, (int) (position - first), data.remaining()));
+                tail[0] = new Tail(bytes, first, length);
+                return read;
+            } finally {
+                transfer.release();
+            }
+        });
+        return tail[0];
+    }
+}
@@ -0,0 +1,80 @@
+package blue.lhf.jfxr.util;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent requests for the same key into one in-flight operation.
+ * A key is only remembered while its operation is running; once it completes,
+ * the next request for that key starts a new one.
+ * <p>
+ * Every caller receives its own future. Cancelling it only detaches that caller;
+ * the shared operation is cancelled once every caller has cancelled.
+ */
+public class SingleFlight<K, V> {
+    private final Map<K, Flight> flights = new ConcurrentHashMap<>();
+
+    public CompletableFuture<V> run(K key, Supplier<CompletableFuture<V>> supplier) {
+        while (true) {
+            // The creator joins before the flight is visible, so other callers leaving can't abandon it
+            Flight flight = new Flight(key);
+            CompletableFuture<V> own = flight.join();
+            Flight existing = flights.putIfAbsent(key, flight);
+            if (existing == null) {
+                flight.start(supplier);
+                return own;
+            }
+
+            CompletableFuture<V> waiter = existing.join();
+            if (waiter != null) return waiter;
+        }
+    }
+
+    private class Flight {
+        private final K key;
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private CompletableFuture<V> source;
+        private int waiters;
+        private boolean abandoned;
+
+        private Flight(K key) {
+            this.key = key;
+        }
+
+        private synchronized void start(Supplier<CompletableFuture<V>> supplier) {
+            if (abandoned) return;
+            try {
+                source = supplier.get();
+            } catch (Throwable throwable) {
+                source = CompletableFuture.failedFuture(throwable);
+            }
+
+            source.whenComplete((value, throwable) -> {
+                flights.remove(key, this);
+                if (throwable != null) result.completeExceptionally(throwable);
+                else result.complete(value);
+            });
+        }
+
+        private synchronized CompletableFuture<V> join() {
+            if (abandoned) return null;
+
+            waiters++;
+            CompletableFuture<V> waiter = result.copy();
+            waiter.whenComplete((value, throwable) -> {
+                if (waiter.isCancelled()) leave();
+            });
+            return waiter;
+        }
+
+        private synchronized void leave() {
+            if (--waiters > 0 || result.isDone()) return;
+
+            abandoned = true;
+            flights.remove(key, this);
+            if (source != null) source.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package blue.lhf.jfxr.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * Reads and writes the central directory of a zip archive without touching its entries,
+ * so archives can be inspected and rebuilt from raw byte ranges.
+ */
+public class ZipDirectory {
+    // The end of central directory record is 22 bytes, followed by a comment of at most 65535 bytes
+    public static final int MAX_END_SIZE = 22 + 65535;
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_OFFSET = 42;
+
+    /**
+     * @param offset the offset of the central directory in the archive
+     * @param size the size of the central directory in bytes
+     * @param count the number of entries in the central directory
+     */
+    public static record End(long offset, long size, int count) {
+    }
+
+    /**
+     * @param name the name of the entry
+     * @param method the compression method of the entry
+     * @param compressedSize the size of the entry's data as stored
+     * @param size the size of the entry's data once inflated
+     * @param offset the offset of the entry's local header in the archive
+     * @param record the entry's raw central directory record
+     */
+    public static record Entry(String name, int method, long compressedSize, long size, long offset, byte[] record) {
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    /**
+     * Finds the end of central directory record in the trailing bytes of an archive.
+     */
+    public static End findEnd(ByteBuffer tail) throws ZipException {
+        ByteBuffer buffer = tail.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = buffer.limit() - 22; i >= 0; i--) {
+            if (buffer.getInt(i) != END_SIGNATURE) continue;
+
+            int count = Short.toUnsignedInt(buffer.getShort(i + 10));
+            long size = Integer.toUnsignedLong(buffer.getInt(i + 12));
+            long offset = Integer.toUnsignedLong(buffer.getInt(i + 16));
+            if (count == 0xFFFF || size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL)
+                throw new ZipException("ZIP64 archives are not supported");
+            return new End(offset, size, count);
+        }
+        throw new ZipException("End of central directory not found");
+    }
+
+    /**
+     * Parses the central directory, returning its entries ordered by their position in the archive.
+     */
+    public static List<Entry> entries(ByteBuffer central) throws ZipException {
+        ByteBuffer buffer = central.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        List<Entry> entries = new ArrayList<>();
+        int position = buffer.position();
+        while (position + 46 <= buffer.limit()) {
+            if (buffer.getInt(position) != CENTRAL_SIGNATURE)
+                throw new ZipException("Invalid central directory record at " + position);
+
+            int nameLength = Short.toUnsignedInt(buffer.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(buffer.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(buffer.getShort(position + 32));
+            int length = 46 + nameLength + extraLength + commentLength;
+
+            byte[] record = new byte[length];
+            buffer.get(position, record);
+            entries.add(new Entry(
+                    new String(record, 46, nameLength, StandardCharsets.UTF_8),
+                    Short.toUnsignedInt(buffer.getShort(position + 10)),
+                    Integer.toUnsignedLong(buffer.getInt(position + 20)),
+                    Integer.toUnsignedLong(buffer.getInt(position + 24)),
+                    Integer.toUnsignedLong(buffer.getInt(position + LOCAL_OFFSET)),
+                    record
+            ));
+            position += length;
+        }
+
+        entries.sort(Comparator.comparingLong(Entry::offset));
+        return entries;
+    }
+
+    /**
+     * Writes a central directory and end record for entries that have been copied,
+     * local header and all, to new offsets.
+     *
+     * @param entries the copied entries
+     * @param offsets the new offset of each entry's local header
+     * @param start the offset at which the central directory is being written
+     */
+    public static void write(OutputStream output, List<Entry> entries, long[] offsets, long start) throws IOException {
+        if (entries.size() >= 0xFFFF || start >= 0xFFFFFFFFL)
+            throw new ZipException("ZIP64 archives are not supported");
+
+        long size = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            byte[] record = entries.get(i).record().clone();
+            ByteBuffer.wrap(record).order(ByteOrder.LITTLE_ENDIAN).putInt(LOCAL_OFFSET, (int) offsets[i]);
+            output.write(record);
+            size += record.length;
+        }
+
+        ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+        end.putInt(END_SIGNATURE)
+                .putShort((short) 0).putShort((short) 0)
+                .putShort((short) entries.size()).putShort((short) entries.size())
+                .putInt((int) size).putInt((int) start)
+                .putShort((short) 0);
+        output.write(end.array());
+    }
+}
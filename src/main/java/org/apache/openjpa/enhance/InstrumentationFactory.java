@@ -30,6 +30,8 @@ import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.CodeSource;
 import java.util.Locale;
 import java.util.Map;
@@ -52,6 +54,7 @@ import org.apache.openjpa.lib.util.JavaVendors;
 public class InstrumentationFactory {
     private static Instrumentation _inst;
     private static boolean _dynamicallyInstall = true;
+    private static File _agentJarDirectory;
     private static final String _name = InstrumentationFactory.class.getName();
 
     /**
@@ -73,6 +76,15 @@ public class InstrumentationFactory {
         _dynamicallyInstall = val;
     }
 
+    /**
+     * Configures the directory in which a generated agent jar is kept between
+     * runs. Defaults to <code>null</code>, in which case a temporary jar is
+     * created on every run.
+     */
+    public static synchronized void setAgentJarDirectory(File dir) {
+        _agentJarDirectory = dir;
+    }
+
     /**
      * @return null if Instrumentation can not be obtained, or if any
      * Exceptions are encountered.
@@ -143,15 +155,39 @@ public class InstrumentationFactory {
 
     /**
      * Create a new jar file for the sole purpose of specifying an Agent-Class
-     * to load into the JVM.
+     * to load into the JVM. If an agent jar directory has been configured, a
+     * valid jar left there by an earlier run is reused instead.
      *
      * @return absolute path to the new jar file.
      */
     private static String createAgentJar() throws IOException {
-        File file =
-                File.createTempFile(InstrumentationFactory.class.getName(), ".jar");
-        file.deleteOnExit();
+        if (_agentJarDirectory == null) {
+            File file =
+                    File.createTempFile(InstrumentationFactory.class.getName(), ".jar");
+            file.deleteOnExit();
+            writeAgentJar(file);
+            return file.getAbsolutePath();
+        }
+
+        File file = new File(_agentJarDirectory, _name + ".jar");
+        if (file.isFile() && validateAgentJarManifest(file, _name)) {
+            return file.getAbsolutePath();
+        }
 
+        // Write to a sibling first so that concurrent launches never see a half-written jar
+        Files.createDirectories(_agentJarDirectory.toPath());
+        File temp = File.createTempFile(_name, ".tmp", _agentJarDirectory);
+        try {
+            writeAgentJar(temp);
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+        return file.getAbsolutePath();
+    }
+
+    private static void writeAgentJar(File file) throws IOException {
         ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(file));
         zout.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
 
@@ -164,8 +200,6 @@ public class InstrumentationFactory {
         writer.println("Can-Retransform-Classes: " + (!JavaVendors.getCurrentVendor().isIBM()));
 
         writer.close();
-
-        return file.getAbsolutePath();
     }
 
     /**
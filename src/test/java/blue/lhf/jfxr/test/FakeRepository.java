@@ -0,0 +1,244 @@
+package blue.lhf.jfxr.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A loopback stand-in for a Maven repository that serves generated JavaFX-like jars for any
+ * {@code <group>/<artifact>/<version>/<artifact>-<version>-<classifier>.jar} path, with
+ * knobs for latency, bandwidth, server errors, truncated bodies and range support.
+ */
+public class FakeRepository implements AutoCloseable {
+    private static final Pattern ARTIFACT = Pattern.compile(
+            ".*/([^/]+)/([^/]+)/\\1-\\2-([^/]+)\\.jar(\\.sha1)?");
+
+    public final AtomicLong requests = new AtomicLong();
+    public final AtomicLong injectedErrors = new AtomicLong();
+    public final AtomicLong truncated = new AtomicLong();
+    public final AtomicLong bytesServed = new AtomicLong();
+
+    private final Builder settings;
+    private final Map<String, byte[]> jars = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final HttpServer server;
+
+    private FakeRepository(Builder settings) throws IOException {
+        this.settings = settings;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public URI uri() {
+        return URI.create("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/");
+    }
+
+    public byte[] jar(String path) {
+        return jars.computeIfAbsent(path, this::generate);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            sleep(settings.latency.toMillis());
+
+            Matcher matcher = ARTIFACT.matcher(exchange.getRequestURI().getPath());
+            if (!matcher.matches()) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            if (ThreadLocalRandom.current().nextDouble() < settings.errorRate) {
+                injectedErrors.incrementAndGet();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            String path = exchange.getRequestURI().getPath();
+            byte[] body = matcher.group(4) == null
+                    ? jar(path)
+                    : sha1(jar(path.substring(0, path.length() - ".sha1".length())));
+
+            long start = 0;
+            long end = body.length - 1;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            boolean partial = settings.ranges && range != null && range.startsWith("bytes=");
+            if (partial) {
+                String[] bounds = range.substring("bytes=".length()).split("-", -1);
+                if (bounds[0].isEmpty()) {
+                    start = Math.max(0, body.length - Long.parseLong(bounds[1]));
+                } else {
+                    start = Long.parseLong(bounds[0]);
+                    if (!bounds[1].isEmpty()) end = Math.min(end, Long.parseLong(bounds[1]));
+                }
+                if (start > end) {
+                    exchange.getResponseHeaders().add("Content-Range", "bytes */" + body.length);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + body.length);
+            }
+            exchange.getResponseHeaders().add("Accept-Ranges", settings.ranges ? "bytes" : "none");
+
+            long length = end - start + 1;
+            boolean head = exchange.getRequestMethod().equals("HEAD");
+            exchange.sendResponseHeaders(partial ? 206 : 200, head ? -1 : length);
+            if (head) return;
+
+            long limit = length;
+            if (ThreadLocalRandom.current().nextDouble() < settings.truncateRate) {
+                truncated.incrementAndGet();
+                limit = length / 2;
+            }
+            write(exchange.getResponseBody(), body, (int) start, limit);
+        }
+    }
+
+    private void write(OutputStream output, byte[] body, int offset, long length) throws IOException {
+        int chunk = 8192;
+        long started = System.nanoTime();
+        long written = 0;
+        while (written < length) {
+            int count = (int) Math.min(chunk, length - written);
+            output.write(body, (int) (offset + written), count);
+            output.flush();
+            written += count;
+            bytesServed.addAndGet(count);
+
+            if (settings.bandwidth > 0) {
+                long due = written * 1_000_000_000L / settings.bandwidth;
+                sleep((due - (System.nanoTime() - started)) / 1_000_000);
+            }
+        }
+    }
+
+    // Jars are generated from the path so every request for it sees the same bytes. Like real
+    // artifacts they aren't what a default ZipOutputStream writes, so rewriting one never reproduces it
+    private byte[] generate(String path) {
+        Random random = new Random(path.hashCode());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.setLevel(Deflater.BEST_COMPRESSION);
+            zip.setComment("Generated by FakeRepository for " + path);
+            zip.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            zip.write("Manifest-Version: 1.0\r\n\r\n".getBytes());
+
+            int remaining = settings.artifactSize;
+            for (int i = 0; remaining > 0; i++) {
+                byte[] content = new byte[Math.min(remaining, 16 * 1024)];
+                random.nextBytes(content);
+                zip.putNextEntry(new ZipEntry("fake/Entry" + i + ".class"));
+                zip.write(content);
+                remaining -= content.length;
+            }
+
+            for (String library : new String[]{"libfake.so", "fake.dll", "libfake.dylib"}) {
+                byte[] content = new byte[4096];
+                random.nextBytes(content);
+                zip.putNextEntry(new ZipEntry(library));
+                zip.write(content);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] sha1(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(content)).getBytes();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) return;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static class Builder {
+        protected Duration latency = Duration.ZERO;
+        protected long bandwidth = 0;
+        protected double errorRate = 0;
+        protected double truncateRate = 0;
+        protected boolean ranges = true;
+        protected int artifactSize = 256 * 1024;
+
+        private Builder() {
+        }
+
+        public Builder latency(Duration latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        // Per connection, in bytes per second, 0 meaning unlimited
+        public Builder bandwidth(long bytesPerSecond) {
+            this.bandwidth = bytesPerSecond;
+            return this;
+        }
+
+        public Builder errorRate(double rate) {
+            this.errorRate = rate;
+            return this;
+        }
+
+        public Builder truncateRate(double rate) {
+            this.truncateRate = rate;
+            return this;
+        }
+
+        public Builder ranges(boolean supported) {
+            this.ranges = supported;
+            return this;
+        }
+
+        public Builder artifactSize(int bytes) {
+            this.artifactSize = bytes;
+            return this;
+        }
+
+        public FakeRepository start() throws IOException {
+            return new FakeRepository(this);
+        }
+    }
+}
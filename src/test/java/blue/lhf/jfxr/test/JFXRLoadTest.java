@@ -0,0 +1,127 @@
+package blue.lhf.jfxr.test;
+
+import blue.lhf.jfxr.Classifier;
+import blue.lhf.jfxr.JFXR;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Drives many concurrent JFXR instances against a {@link FakeRepository} and reports
+ * throughput, tail latency, thread and file descriptor counts. Every knob is a system property:
+ * <pre>
+ * jfxr.load.instances  concurrent JFXR instances (default 100)
+ * jfxr.load.shared     whether the instances share one output directory (default false)
+ * jfxr.load.latency    per-request latency in milliseconds (default 0)
+ * jfxr.load.bandwidth  per-connection bandwidth in bytes per second, 0 for unlimited (default 0)
+ * jfxr.load.errors     fraction of requests answered with a 503 (default 0)
+ * jfxr.load.truncate   fraction of bodies cut off halfway (default 0)
+ * jfxr.load.ranges     whether Range requests are honoured (default true)
+ * jfxr.load.size       approximate size of each jar in bytes (default 262144)
+ * </pre>
+ */
+public class JFXRLoadTest {
+    public static void main(String[] args) throws Exception {
+        new JFXRLoadTest().testLoad();
+        // The download pool's threads would otherwise keep the VM alive
+        System.exit(0);
+    }
+
+    //@Test
+    public void testLoad() throws Exception {
+        int instances = Integer.getInteger("jfxr.load.instances", 100);
+        boolean shared = Boolean.getBoolean("jfxr.load.shared");
+
+        Path root = Files.createTempDirectory("jfxr-load");
+        try (FakeRepository repository = FakeRepository.builder()
+                .latency(Duration.ofMillis(Long.getLong("jfxr.load.latency", 0)))
+                .bandwidth(Long.getLong("jfxr.load.bandwidth", 0))
+                .errorRate(Double.parseDouble(System.getProperty("jfxr.load.errors", "0")))
+                .truncateRate(Double.parseDouble(System.getProperty("jfxr.load.truncate", "0")))
+                .ranges(Boolean.parseBoolean(System.getProperty("jfxr.load.ranges", "true")))
+                .artifactSize(Integer.getInteger("jfxr.load.size", 256 * 1024))
+                .start()) {
+
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            threads.resetPeakThreadCount();
+            long startFds = openFileDescriptors();
+
+            ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+            AtomicInteger failures = new AtomicInteger();
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < instances; i++) {
+                Path outDir = shared ? root : root.resolve("instance-" + i);
+                long began = System.nanoTime();
+                futures.add(JFXR.builder("0-load")
+                        .repository(repository.uri().toString())
+                        .modules("base", "graphics", "controls", "fxml")
+                        .dontDetect()
+                        .classifiers(Classifier.LINUX)
+                        .output(outDir)
+                        .build().call()
+                        .whenComplete((unused, throwable) -> {
+                            latencies.add(System.nanoTime() - began);
+                            if (throwable != null) failures.incrementAndGet();
+                        }));
+            }
+
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).exceptionally(throwable -> null).join();
+            long elapsed = System.nanoTime() - start;
+
+            List<Long> sorted = latencies.stream().sorted(Comparator.naturalOrder()).toList();
+            double seconds = elapsed / 1e9;
+            System.out.printf("instances:        %d (%s output)%n", instances, shared ? "shared" : "separate");
+            System.out.printf("failures:         %d%n", failures.get());
+            System.out.printf("elapsed:          %.2f s%n", seconds);
+            System.out.printf("requests:         %d (%d errors injected, %d truncated)%n",
+                    repository.requests.get(), repository.injectedErrors.get(), repository.truncated.get());
+            System.out.printf("throughput:       %.2f MiB/s%n", repository.bytesServed.get() / seconds / (1 << 20));
+            System.out.printf("latency p50:      %d ms%n", percentile(sorted, 0.50));
+            System.out.printf("latency p95:      %d ms%n", percentile(sorted, 0.95));
+            System.out.printf("latency p99:      %d ms%n", percentile(sorted, 0.99));
+            System.out.printf("latency max:      %d ms%n", percentile(sorted, 1.00));
+            System.out.printf("peak threads:     %d%n", threads.getPeakThreadCount());
+            System.out.printf("open fds:         %d (started with %d)%n", openFileDescriptors(), startFds);
+        } finally {
+            delete(root);
+        }
+    }
+
+    private static long percentile(List<Long> sorted, double fraction) {
+        if (sorted.isEmpty()) return -1;
+        int index = (int) Math.ceil(fraction * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index)) / 1_000_000;
+    }
+
+    private static long openFileDescriptors() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.UnixOperatingSystemMXBean unix) return unix.getOpenFileDescriptorCount();
+        return -1;
+    }
+
+    private static void delete(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException ignored) {
+                    // background cache upkeep may still be writing, the temp directory is fine to leave behind
+                }
+            }
+        }
+    }
+}